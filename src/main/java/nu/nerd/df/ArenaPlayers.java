@@ -0,0 +1,247 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * An index of the players in the fight world who are within a fixed radius of
+ * the arena, i.e. the world origin.
+ *
+ * Membership is updated from player movement, vehicle movement (for mounted
+ * players, who don't fire player movement events), teleport, world change,
+ * join and quit events, so that listing the players near the arena costs time
+ * proportional to the number of those players, rather than the number of
+ * players in the End. The list returned by {@link #getPlayers()} is cached
+ * until the membership next changes.
+ *
+ * Only the 2-D distance from the world origin is considered.
+ */
+public class ArenaPlayers implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param radius the radius around the world origin within which players
+     *               are in the arena.
+     */
+    public ArenaPlayers(double radius) {
+        _radiusSquared = radius * radius;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an unmodifiable list of the players who are currently within the
+     * arena radius.
+     *
+     * @return the players in the arena.
+     */
+    public List<Player> getPlayers() {
+        if (_cachedPlayers == null) {
+            _cachedPlayers = Collections.unmodifiableList(new ArrayList<>(_players.values()));
+        }
+        return _cachedPlayers;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rebuild the index from the players currently in the fight world.
+     *
+     * This is necessary when the plugin is enabled after players have already
+     * joined, e.g. on reload.
+     */
+    public void rebuild() {
+        _players.clear();
+        _cachedPlayers = null;
+        World world = DragonUtil.getFightWorld();
+        if (world != null) {
+            for (Player player : world.getPlayers()) {
+                update(player, player.getLocation());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the membership of players who move within the fight world.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onPlayerMove(PlayerMoveEvent event) {
+        Location to = event.getTo();
+        if (to != null && isArenaWorld(to.getWorld())) {
+            update(event.getPlayer(), to);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the membership of players riding vehicles that move within the
+     * fight world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    protected void onVehicleMove(VehicleMoveEvent event) {
+        Location to = event.getTo();
+        if (isArenaWorld(to.getWorld())) {
+            updatePassengers(event.getVehicle(), to);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the membership of players who teleport within the fight world.
+     *
+     * Teleports between worlds are handled by
+     * {@link #onPlayerChangedWorld(PlayerChangedWorldEvent)}.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onPlayerTeleport(PlayerTeleportEvent event) {
+        Location to = event.getTo();
+        if (to != null && to.getWorld() == event.getFrom().getWorld() && isArenaWorld(to.getWorld())) {
+            update(event.getPlayer(), to);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add players who arrive in the fight world near the arena and remove
+     * players who leave the fight world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    protected void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        Player player = event.getPlayer();
+        if (isArenaWorld(player.getWorld())) {
+            update(player, player.getLocation());
+        } else {
+            remove(player);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add players who log in near the arena.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    protected void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        if (isArenaWorld(player.getWorld())) {
+            update(player, player.getLocation());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove players who log out.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    protected void onPlayerQuit(PlayerQuitEvent event) {
+        remove(event.getPlayer());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add or remove a player in the fight world according to their location.
+     *
+     * @param player the player.
+     * @param loc    the player's current or destination location.
+     */
+    protected void update(Player player, Location loc) {
+        double x = loc.getX();
+        double z = loc.getZ();
+        if (x * x + z * z < _radiusSquared) {
+            if (_players.put(player.getUniqueId(), player) != player) {
+                _cachedPlayers = null;
+            }
+        } else {
+            remove(player);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the membership of the players among the passengers of a vehicle,
+     * including passengers of passengers.
+     *
+     * @param vehicle the vehicle.
+     * @param loc     the vehicle's current location.
+     */
+    protected void updatePassengers(Entity vehicle, Location loc) {
+        for (Entity passenger : vehicle.getPassengers()) {
+            if (passenger instanceof Player) {
+                update((Player) passenger, loc);
+            }
+            updatePassengers(passenger, loc);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a player from the arena.
+     *
+     * @param player the player.
+     */
+    protected void remove(Player player) {
+        if (_players.remove(player.getUniqueId()) != null) {
+            _cachedPlayers = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified world is the fight world.
+     *
+     * Player movement events are very frequent, so the fight world is
+     * recognised by identity where possible.
+     *
+     * @param world the world.
+     * @return true if the specified world is the fight world.
+     */
+    protected boolean isArenaWorld(World world) {
+        if (world == _fightWorld) {
+            return true;
+        }
+        if (DragonUtil.isFightWorld(world)) {
+            _fightWorld = world;
+            return true;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Square of the arena radius.
+     */
+    protected final double _radiusSquared;
+
+    /**
+     * The most recently seen instance of the fight world.
+     */
+    protected World _fightWorld;
+
+    /**
+     * Map from UUID to players within the arena radius.
+     */
+    protected LinkedHashMap<UUID, Player> _players = new LinkedHashMap<>();
+
+    /**
+     * Cached unmodifiable list of the values of {@link #_players}, or null if
+     * it must be recomputed.
+     */
+    protected List<Player> _cachedPlayers;
+} // class ArenaPlayers
@@ -0,0 +1,305 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+import nu.nerd.beastmaster.BeastMaster;
+import nu.nerd.beastmaster.Drop;
+import nu.nerd.beastmaster.DropSet;
+import nu.nerd.beastmaster.DropType;
+import nu.nerd.beastmaster.PotionSet;
+import nu.nerd.beastmaster.ProbablePotion;
+import nu.nerd.beastmaster.mobs.DataType;
+import nu.nerd.beastmaster.mobs.MobType;
+
+// ----------------------------------------------------------------------------
+/**
+ * The default BeastMaster objects (items, potion sets, mob types and loot
+ * tables) that DragonFight relies on.
+ *
+ * Each default is declared as a named pair of actions: a check that the
+ * registered object is as required, and a repair that makes it so. All checks
+ * are evaluated in one pass before anything is changed; only the defaults that
+ * are missing are then applied, in declaration order, so that objects are
+ * defined before those that refer to them.
+ *
+ * Applying defaults does not save BeastMaster's configuration. Callers save
+ * once, after all defaults are applied, and only if any were.
+ */
+public class BeastMasterDefaults {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * Declares the defaults.
+     */
+    public BeastMasterDefaults() {
+        // Default items.
+        define("item df-elytra",
+               () -> BeastMaster.ITEMS.getItem("df-elytra") != null,
+               () -> BeastMaster.ITEMS.addItem("df-elytra", new ItemStack(Material.ELYTRA)));
+        define("item df-dragon-head",
+               () -> BeastMaster.ITEMS.getItem("df-dragon-head") != null,
+               () -> BeastMaster.ITEMS.addItem("df-dragon-head", new ItemStack(Material.DRAGON_HEAD)));
+        define("item df-placeholder-head",
+               () -> BeastMaster.ITEMS.getItem("df-placeholder-head") != null,
+               () -> {
+                   ItemStack dfPlaceholderHead = loadPlaceholderHead();
+                   if (dfPlaceholderHead != null) {
+                       BeastMaster.ITEMS.addItem("df-placeholder-head", dfPlaceholderHead);
+                   }
+               });
+
+        // Default potion sets.
+        define("potion set df-boss-potions",
+               () -> BeastMaster.POTIONS.getPotionSet("df-boss-potions") != null,
+               () -> {
+                   PotionSet dfBossPotions = new PotionSet("df-boss-potions");
+                   PotionEffect potionEffect = new PotionEffect(PotionEffectType.FIRE_RESISTANCE, Integer.MAX_VALUE, 0, false, false);
+                   dfBossPotions.addPotion(new ProbablePotion(potionEffect, 1.0));
+                   BeastMaster.POTIONS.addPotionSet(dfBossPotions);
+               });
+
+        // EnderDragon friend groups.
+        define("ender_dragon friend-groups",
+               () -> {
+                   Set<String> friendGroups = getDragonFriendGroups();
+                   return friendGroups != null && friendGroups.contains("df-entity");
+               },
+               () -> {
+                   Set<String> friendGroups = getDragonFriendGroups();
+                   if (friendGroups == null) {
+                       BeastMaster.MOBS.getMobType(EntityType.ENDER_DRAGON).getProperty("friend-groups")
+                       .setValue(DataType.TAG_SET.deserialise("df-entity"));
+                   } else {
+                       friendGroups.add("df-entity");
+                   }
+               });
+
+        // Default mob types.
+        define("mob df-support",
+               () -> BeastMaster.MOBS.getMobType("df-support") != null,
+               () -> {
+                   MobType dfSupport = new MobType("df-support", "skeleton");
+                   dfSupport.getProperty("show-name-plate").setValue(true);
+                   dfSupport.getProperty("pick-up-percent").setValue(0.0);
+                   dfSupport.getProperty("helmet-drop-percent").setValue(0.0);
+                   dfSupport.getProperty("chest-plate-drop-percent").setValue(0.0);
+                   dfSupport.getProperty("leggings-drop-percent").setValue(0.0);
+                   dfSupport.getProperty("boots-drop-percent").setValue(0.0);
+                   dfSupport.getProperty("main-hand-drop-percent").setValue(0.0);
+                   dfSupport.getProperty("drops").setValue("df-no-drops");
+                   dfSupport.getProperty("can-despawn").setValue(false);
+                   dfSupport.getProperty("groups").setValue(DataType.TAG_SET.deserialise("df-entity,df-support"));
+                   dfSupport.getProperty("friend-groups").setValue(DataType.TAG_SET.deserialise("df-entity"));
+                   BeastMaster.MOBS.addMobType(dfSupport);
+               });
+        define("mob df-boss",
+               () -> BeastMaster.MOBS.getMobType("df-boss") != null,
+               () -> {
+                   MobType dfBoss = new MobType("df-boss", "df-support");
+                   dfBoss.getProperty("potion-buffs").setValue("df-boss-potions");
+                   dfBoss.getProperty("health").setValue(300.0);
+                   dfBoss.getProperty("groups").setValue(DataType.TAG_SET.deserialise("df-boss,df-entity"));
+                   BeastMaster.MOBS.addMobType(dfBoss);
+               });
+        define("mob df-placeholder-boss",
+               () -> BeastMaster.MOBS.getMobType("df-placeholder-boss") != null,
+               () -> {
+                   MobType dfPlaceholderBoss = new MobType("df-placeholder-boss", "df-boss");
+                   dfPlaceholderBoss.getProperty("entity-type").setValue(EntityType.WITHER_SKELETON);
+                   dfPlaceholderBoss.getProperty("name").setValue("Test Boss Pls Ignore");
+                   dfPlaceholderBoss.getProperty("helmet").setValue("df-placeholder-head");
+                   dfPlaceholderBoss.getProperty("main-hand").setValue("stone_sword");
+                   BeastMaster.MOBS.addMobType(dfPlaceholderBoss);
+               });
+
+        // Default loot tables.
+        define("loot df-dragon-drops",
+               () -> BeastMaster.LOOTS.getDropSet("df-dragon-drops") != null,
+               () -> {
+                   DropSet dfDragonDrops = new DropSet("df-dragon-drops");
+                   dfDragonDrops.addDrop(new Drop(DropType.ITEM, "df-elytra", 1.0, 1, 1));
+                   dfDragonDrops.addDrop(new Drop(DropType.ITEM, "df-dragon-head", 1.0, 1, 1));
+                   BeastMaster.LOOTS.addDropSet(dfDragonDrops);
+               });
+
+        // Force df-no-drops to only drop NOTHING.
+        define("loot df-no-drops",
+               () -> {
+                   DropSet dfNoDrops = BeastMaster.LOOTS.getDropSet("df-no-drops");
+                   if (dfNoDrops == null) {
+                       return false;
+                   }
+                   Drop nothing = dfNoDrops.getDrop("NOTHING");
+                   return nothing != null &&
+                          nothing.getDropType() == DropType.NOTHING &&
+                          dfNoDrops.getAllDrops().size() == 1;
+               },
+               () -> {
+                   DropSet dfNoDrops = new DropSet("df-no-drops");
+                   dfNoDrops.addDrop(new Drop(DropType.NOTHING, "NOTHING", 1.0, 1, 1));
+                   BeastMaster.LOOTS.removeDropSet("df-no-drops");
+                   BeastMaster.LOOTS.addDropSet(dfNoDrops);
+               });
+
+        // Stage loot tables, with a placeholder boss if empty. Stage 11 has
+        // no loot table.
+        for (int stageNumber = 1; stageNumber <= 10; ++stageNumber) {
+            String dropSetId = Stage.getDropSetId(stageNumber);
+            define("loot " + dropSetId,
+                   () -> {
+                       DropSet stageDropSet = BeastMaster.LOOTS.getDropSet(dropSetId);
+                       return stageDropSet != null && !stageDropSet.getAllDrops().isEmpty();
+                   },
+                   () -> {
+                       DropSet stageDropSet = BeastMaster.LOOTS.getDropSet(dropSetId);
+                       if (stageDropSet == null) {
+                           stageDropSet = new DropSet(dropSetId);
+                           BeastMaster.LOOTS.addDropSet(stageDropSet);
+                       }
+                       stageDropSet.addDrop(new Drop(DropType.MOB, "df-placeholder-boss", 1.0, 1, 1));
+                   });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Check all defaults, then apply those that are missing.
+     *
+     * @return the names of the defaults that were applied, in the order they
+     *         were applied; empty if BeastMaster's configuration is unchanged.
+     */
+    public List<String> apply() {
+        List<Default> missing = new ArrayList<>();
+        for (Default def : _defaults) {
+            if (!def._present.getAsBoolean()) {
+                missing.add(def);
+            }
+        }
+
+        List<String> applied = new ArrayList<>(missing.size());
+        for (Default def : missing) {
+            def._apply.run();
+            applied.add(def._name);
+        }
+        return applied;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save BeastMaster's configuration on the next tick.
+     *
+     * BeastMaster's objects are not thread-safe, so the save stays on the main
+     * thread, but is deferred until after the plugin has finished enabling.
+     */
+    public static void scheduleSave() {
+        Bukkit.getScheduler().runTask(DragonFight.PLUGIN, () -> {
+            long start = System.nanoTime();
+            BeastMaster.CONFIG.save();
+            FightState.debug(String.format("Saved BeastMaster configuration in %.1f ms.",
+                                           (System.nanoTime() - start) / 1e6));
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Declare a default.
+     *
+     * @param name    the name of the default, for logging.
+     * @param present returns true if the default is already in effect.
+     * @param apply   puts the default into effect.
+     */
+    protected void define(String name, BooleanSupplier present, Runnable apply) {
+        _defaults.add(new Default(name, present, apply));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the value of the ender dragon's friend-groups property.
+     *
+     * @return the friend groups, or null if not set.
+     */
+    @SuppressWarnings("unchecked")
+    protected static Set<String> getDragonFriendGroups() {
+        MobType dragonMobType = BeastMaster.MOBS.getMobType(EntityType.ENDER_DRAGON);
+        return (Set<String>) dragonMobType.getProperty("friend-groups").getValue();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deserialise the placeholder boss head.
+     *
+     * @return the head, or null if it could not be loaded.
+     */
+    protected static ItemStack loadPlaceholderHead() {
+        String skullData = "item:\n" +
+                           "  ==: org.bukkit.inventory.ItemStack\n" +
+                           "  v: 2230\n" +
+                           "  type: PLAYER_HEAD\n" +
+                           "  meta:\n" +
+                           "    ==: ItemMeta\n" +
+                           "    meta-type: SKULL\n" +
+                           "    display-name: 'TODO: add texture'\n" +
+                           "    internal: H4sIAAAAAAAAAE2KzW6CQBhFvzZpQkkfo1uSAQRk0YUpRIfIUJHf2Y0wRKaDNQhWfK4+YOmui5vcc89VAVR42X+OUn70X00ruQrq3M68H1p+eQZl4Ldh7PlFBYAHBZ4yJkcOP3wKEC2OqC4CWU3YnjnZIxlhcXbwKZsO79jG3ew3K3s7uf++1sByS5ZmcKSn3XjoMrQ1Y8k3sV516ZUktYgSH4WJr0dedS/vuxtNQoMI2c6R1MPfYecbVKwmIlKTisqg63Si69IIRSzLPF0QLxPE+9tSneSZCNvAbQr0BqDAI67hlTmmzh2r0pyGWdqC1ba2rF1XQ1W9ZDZzddsxAH4BxCeVXBwBAAA=\n";
+        try {
+            YamlConfiguration config = new YamlConfiguration();
+            config.loadFromString(skullData);
+            return config.getItemStack("item");
+        } catch (InvalidConfigurationException ex) {
+            DragonFight.PLUGIN.getLogger().warning("Unable to load df-placeholder-head.");
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A named default BeastMaster object or property.
+     */
+    protected static final class Default {
+        /**
+         * Constructor.
+         *
+         * @param name    the name of the default, for logging.
+         * @param present returns true if the default is already in effect.
+         * @param apply   puts the default into effect.
+         */
+        Default(String name, BooleanSupplier present, Runnable apply) {
+            _name = name;
+            _present = present;
+            _apply = apply;
+        }
+
+        /**
+         * The name of the default, for logging.
+         */
+        final String _name;
+
+        /**
+         * Returns true if the default is already in effect.
+         */
+        final BooleanSupplier _present;
+
+        /**
+         * Puts the default into effect.
+         */
+        final Runnable _apply;
+    } // class Default
+
+    // ------------------------------------------------------------------------
+    /**
+     * The declared defaults, in the order they are applied.
+     */
+    protected final List<Default> _defaults = new ArrayList<>();
+} // class BeastMasterDefaults
@@ -0,0 +1,117 @@
+package nu.nerd.df;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.boss.BossBar;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * Manages the set of players who see a boss bar, according to their distance
+ * from the centre of the fight world.
+ *
+ * Rather than removing all players from the bar and adding back the nearby
+ * ones, which sends boss bar packets to every viewer on every update, only the
+ * players whose membership has changed are added or removed.
+ *
+ * To stop players at the edge of the area from flickering in and out of the
+ * set, there is a hysteresis band: players join when they come within the
+ * enter radius and only leave when they go beyond the (larger) leave radius.
+ * Only the 2-D distance from the world origin is considered.
+ */
+public class BossBarViewers {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param enterRadius the distance within which players start to see the
+     *                    bar.
+     * @param leaveRadius the distance beyond which players stop seeing the bar;
+     *                    must be at least enterRadius.
+     */
+    public BossBarViewers(double enterRadius, double leaveRadius) {
+        _enterRadius = enterRadius;
+        _leaveRadius = leaveRadius;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add and remove players from the boss bar according to their current
+     * locations.
+     *
+     * @param bar        the boss bar.
+     * @param world      the world containing the players who may see the bar.
+     * @param candidates the players in the world who may be within the enter
+     *                   radius; every player within that radius must be
+     *                   included.
+     */
+    public void update(BossBar bar, World world, Collection<Player> candidates) {
+        if (bar != _bar) {
+            clear();
+            _bar = bar;
+        }
+
+        // Remove viewers who left, either the server, the world or the area.
+        // Players who relog are new Player instances, but the old instance
+        // still reports being online (the lookup is by UUID), so also remove
+        // viewers whose instance is no longer the current one. The new
+        // instance is added below.
+        Iterator<Map.Entry<UUID, Player>> it = _viewers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Player> entry = it.next();
+            Player player = entry.getValue();
+            if (Bukkit.getPlayer(entry.getKey()) != player ||
+                !player.isOnline() || player.getWorld() != world ||
+                DragonUtil.getMagnitude2D(player.getLocation()) > _leaveRadius) {
+                bar.removePlayer(player);
+                it.remove();
+            }
+        }
+
+        for (Player player : candidates) {
+            if (!_viewers.containsKey(player.getUniqueId()) &&
+                DragonUtil.getMagnitude2D(player.getLocation()) < _enterRadius) {
+                bar.addPlayer(player);
+                _viewers.put(player.getUniqueId(), player);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all viewers from the boss bar.
+     */
+    public void clear() {
+        if (_bar != null) {
+            _bar.removeAll();
+        }
+        _viewers.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The boss bar whose viewers are managed.
+     */
+    protected BossBar _bar;
+
+    /**
+     * Map from UUID to the current viewers of the boss bar.
+     */
+    protected HashMap<UUID, Player> _viewers = new HashMap<>();
+
+    /**
+     * The distance within which players start to see the bar.
+     */
+    protected final double _enterRadius;
+
+    /**
+     * The distance beyond which players stop seeing the bar.
+     */
+    protected final double _leaveRadius;
+} // class BossBarViewers
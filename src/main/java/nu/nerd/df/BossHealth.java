@@ -0,0 +1,104 @@
+package nu.nerd.df;
+
+import java.util.Collection;
+
+import org.bukkit.entity.LivingEntity;
+
+// ----------------------------------------------------------------------------
+/**
+ * Maintains the total health of the current stage's bosses.
+ *
+ * The total is updated incrementally as bosses are added and removed and as
+ * they take damage or regain health, so that reading it costs O(1) rather
+ * than a pass over all bosses. Since the health change implied by an event
+ * is not always exactly the change that is applied (e.g. when another plugin
+ * adjusts health directly), the total is periodically reconciled with the
+ * actual health of the bosses by {@link #reconcile(Collection)}.
+ */
+public class BossHealth {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total health of all bosses.
+     *
+     * @return the total health of all bosses.
+     */
+    public double getTotal() {
+        return _total;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the current health of a boss to the total.
+     *
+     * @param boss the boss.
+     */
+    public void add(LivingEntity boss) {
+        _total += boss.getHealth();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Subtract the current health of a boss from the total.
+     *
+     * @param boss the boss.
+     */
+    public void remove(LivingEntity boss) {
+        _total = Math.max(0.0, _total - boss.getHealth());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Account for a boss taking damage.
+     *
+     * @param boss        the boss, whose health has not yet been reduced.
+     * @param finalDamage the final damage of the event.
+     */
+    public void damage(LivingEntity boss, double finalDamage) {
+        double health = boss.getHealth();
+        _total = Math.max(0.0, _total - Math.min(health, finalDamage));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Account for a boss regaining health.
+     *
+     * @param boss   the boss, whose health has not yet been increased.
+     * @param amount the amount of health regained.
+     */
+    public void regain(LivingEntity boss, double amount) {
+        double health = boss.getHealth();
+        _total += Math.max(0.0, Math.min(boss.getMaxHealth(), health + amount) - health);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the total to zero, when all bosses are removed.
+     */
+    public void clear() {
+        _total = 0.0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute the total from the actual health of the bosses.
+     *
+     * @param bosses all current bosses.
+     * @return the drift that was corrected, i.e. the actual total health minus
+     *         the maintained total.
+     */
+    public double reconcile(Collection<LivingEntity> bosses) {
+        double actual = 0.0;
+        for (LivingEntity boss : bosses) {
+            actual += boss.getHealth();
+        }
+        double drift = actual - _total;
+        _total = actual;
+        return drift;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maintained total health.
+     */
+    protected double _total;
+} // class BossHealth
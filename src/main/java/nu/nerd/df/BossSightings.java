@@ -0,0 +1,135 @@
+package nu.nerd.df;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records the time that each boss was last "seen", i.e. took damage or was
+ * returned to the arena.
+ *
+ * Each tracked boss is assigned a slot in a primitive array of timestamps.
+ * Slots are looked up by the boss's UUID and are recycled when bosses are
+ * removed, so that recording a sighting of an already-tracked boss allocates
+ * nothing. This replaces Bukkit metadata, which boxes the timestamp and
+ * allocates a metadata value on every hit, and a list on every read.
+ */
+public class BossSightings {
+    // ------------------------------------------------------------------------
+    /**
+     * Record that the specified boss was seen at the specified time.
+     *
+     * @param boss the boss.
+     * @param now  the current System.currentTimeMillis() time stamp.
+     */
+    public void seen(Entity boss, long now) {
+        _lastSeen[getSlot(boss)] = now;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time in milliseconds since the specified boss was last seen.
+     *
+     * A boss that has never been seen is treated as having been seen now.
+     *
+     * @param boss the boss.
+     * @param now  the current System.currentTimeMillis() time stamp.
+     * @return the time in milliseconds since the boss was last seen.
+     */
+    public long getTimeSinceSeen(Entity boss, long now) {
+        Integer slot = _slots.get(boss.getUniqueId());
+        if (slot == null) {
+            seen(boss, now);
+            return 0;
+        }
+        return now - _lastSeen[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop tracking the specified boss, freeing its slot.
+     *
+     * @param boss the boss.
+     */
+    public void remove(Entity boss) {
+        Integer slot = _slots.remove(boss.getUniqueId());
+        if (slot != null) {
+            _freeSlots[_freeCount++] = slot;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop tracking all bosses.
+     */
+    public void clear() {
+        _slots.clear();
+        _freeCount = 0;
+        _usedSlots = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the slot index of the specified boss, assigning a slot if the boss
+     * is not already tracked.
+     *
+     * @param boss the boss.
+     * @return the slot index.
+     */
+    protected int getSlot(Entity boss) {
+        UUID uuid = boss.getUniqueId();
+        Integer slot = _slots.get(uuid);
+        if (slot != null) {
+            return slot;
+        }
+
+        int newSlot;
+        if (_freeCount > 0) {
+            newSlot = _freeSlots[--_freeCount];
+        } else {
+            if (_usedSlots == _lastSeen.length) {
+                _lastSeen = Arrays.copyOf(_lastSeen, 2 * _usedSlots);
+                _freeSlots = Arrays.copyOf(_freeSlots, 2 * _usedSlots);
+            }
+            newSlot = _usedSlots++;
+        }
+        _slots.put(uuid, newSlot);
+        return newSlot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Initial number of slots; enough for all the bosses of any normal stage.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Map from boss UUID to slot index.
+     */
+    protected HashMap<UUID, Integer> _slots = new HashMap<>();
+
+    /**
+     * System.currentTimeMillis() time stamp of the last time the boss in each
+     * slot was seen.
+     */
+    protected long[] _lastSeen = new long[INITIAL_CAPACITY];
+
+    /**
+     * Stack of slot indices that were freed by {@link #remove(Entity)}.
+     */
+    protected int[] _freeSlots = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of entries in {@link #_freeSlots}.
+     */
+    protected int _freeCount;
+
+    /**
+     * Number of slots that have ever been assigned since the last
+     * {@link #clear()}; slots at or above this index have never been used.
+     */
+    protected int _usedSlots;
+} // class BossSightings
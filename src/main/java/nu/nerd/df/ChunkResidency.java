@@ -0,0 +1,161 @@
+package nu.nerd.df;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Manages the plugin chunk tickets that keep the arena loaded.
+ *
+ * Each phase of the fight needs a different area of the End to stay loaded,
+ * e.g. none when idle, the pillars during summoning and the area where bosses
+ * roam during stages. The area is a disc of chunks about the world origin,
+ * with a radius chosen for the phase. On each change of phase (or radius),
+ * tickets are added for the chunks that are newly needed and removed from
+ * those that no longer are; chunks needed in both are left alone.
+ */
+public class ChunkResidency {
+    // ------------------------------------------------------------------------
+    /**
+     * Phases of the fight with distinct chunk needs.
+     */
+    public enum Phase {
+        /**
+         * No fight is happening.
+         */
+        IDLE,
+
+        /**
+         * The fight state is being recovered after a restart.
+         */
+        RECOVERY,
+
+        /**
+         * The dragon is being summoned by crystals on the portal.
+         */
+        SUMMONING,
+
+        /**
+         * Stages 1 to 10, including the transitions between them.
+         */
+        STAGE,
+
+        /**
+         * Stage 11: only the dragon remains.
+         */
+        DRAGON
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Hold tickets on exactly the chunks that intersect a disc about the world
+     * origin, releasing any others.
+     *
+     * @param world  the world.
+     * @param phase  the phase of the fight, for reporting.
+     * @param radius the radius of the disc in blocks; zero or less holds no
+     *               chunks.
+     */
+    public void hold(World world, Phase phase, double radius) {
+        Set<Long> needed = getChunksInRadius(radius);
+
+        int released = 0;
+        Iterator<Long> it = _held.iterator();
+        while (it.hasNext()) {
+            long key = it.next();
+            if (!needed.contains(key)) {
+                world.removePluginChunkTicket(DragonUtil.getChunkX(key), DragonUtil.getChunkZ(key), DragonFight.PLUGIN);
+                it.remove();
+                ++released;
+            }
+        }
+
+        int acquired = 0;
+        for (long key : needed) {
+            if (_held.add(key)) {
+                world.addPluginChunkTicket(DragonUtil.getChunkX(key), DragonUtil.getChunkZ(key), DragonFight.PLUGIN);
+                ++acquired;
+            }
+        }
+
+        if (phase != _phase || acquired != 0 || released != 0) {
+            FightState.log("Chunk residency: " + phase + ", holding " + _held.size() + " chunks (" +
+                           acquired + " acquired, " + released + " released).");
+        }
+        _phase = phase;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current phase.
+     *
+     * @return the current phase.
+     */
+    public Phase getPhase() {
+        return _phase;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks currently held.
+     *
+     * @return the number of chunks currently held.
+     */
+    public int size() {
+        return _held.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the keys of the chunks currently held, as computed by
+     * {@link DragonUtil#getChunkKey(int, int)}.
+     *
+     * @return the keys; the set must not be modified.
+     */
+    public Set<Long> getChunks() {
+        return _held;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the keys of all chunks that intersect a disc about the world
+     * origin.
+     *
+     * @param radius the radius of the disc in blocks.
+     * @return the chunk keys.
+     */
+    protected static Set<Long> getChunksInRadius(double radius) {
+        HashSet<Long> chunks = new HashSet<>();
+        if (radius <= 0) {
+            return chunks;
+        }
+
+        int chunkRange = (int) Math.ceil(radius / 16);
+        double radiusSquared = radius * radius;
+        for (int x = -chunkRange; x <= chunkRange; ++x) {
+            for (int z = -chunkRange; z <= chunkRange; ++z) {
+                // The block in the chunk nearest the origin.
+                double nearestX = Math.max(16 * x, Math.min(0, 16 * x + 15));
+                double nearestZ = Math.max(16 * z, Math.min(0, 16 * z + 15));
+                if (nearestX * nearestX + nearestZ * nearestZ <= radiusSquared) {
+                    chunks.add(DragonUtil.getChunkKey(x, z));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The current phase.
+     */
+    protected Phase _phase = Phase.IDLE;
+
+    /**
+     * Keys of the chunks on which this plugin holds tickets.
+     */
+    protected HashSet<Long> _held = new HashSet<>();
+} // class ChunkResidency
@@ -0,0 +1,419 @@
+package nu.nerd.df;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * Writes a YAML file in the plugin's data folder behind the main thread.
+ *
+ * The file is divided into a fixed, ordered list of sections, identified by
+ * their paths, e.g. "settings" or "stages.1". Top level keys that are not part
+ * of any section path (e.g. ones added by hand) are carried through as a
+ * further fragment, written last; the snapshotter returns them when called
+ * with {@link #OTHER_KEYS}. Unrecognised keys nested under the enclosing keys
+ * of sections (e.g. "stages") are not preserved. Callers
+ * {@link #markDirty(String)} a section whenever its contents change. The first
+ * change schedules a flush a short time later, so that a burst of changes
+ * (e.g. several commands in quick succession) results in a single write.
+ *
+ * A flush takes immutable snapshots of only the changed sections on the main
+ * thread. The background thread serialises each of those to a YAML fragment
+ * and assembles the file from the fragments of all sections, reusing the
+ * cached fragments of sections that have not changed. So the cost of saving
+ * on the main thread, and of serialisation, is proportional to what changed,
+ * rather than to the size of the file.
+ *
+ * Files are written to a temporary file in the same directory that is then
+ * renamed over the original, so that a crash part-way through a write never
+ * leaves a truncated file.
+ *
+ * {@link #flushAndWait()} flushes any pending changes and blocks until all
+ * writes have completed; it is used before the file is read back and when the
+ * plugin is disabled.
+ */
+public class ConfigPersister {
+    // ------------------------------------------------------------------------
+    /**
+     * The pseudo-path passed to the snapshotter to snapshot the top level keys
+     * that are not part of any section path.
+     */
+    public static final String OTHER_KEYS = "";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param fileName    the name of the file in the plugin's data folder.
+     * @param paths       the paths of the sections of the file, in the order
+     *                    they are written; no path may be a prefix of another.
+     * @param snapshotter called on the main thread with the path of a section
+     *                    (or {@link #OTHER_KEYS}) to return an immutable
+     *                    snapshot of its contents, as returned by
+     *                    {@link #snapshot(ConfigurationSection)}.
+     */
+    public ConfigPersister(String fileName, List<String> paths, Function<String, Map<String, Object>> snapshotter) {
+        _fileName = fileName;
+        _paths = new ArrayList<>(paths);
+        _snapshotter = snapshotter;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that the contents of a section have changed and schedule a
+     * flush, unless one is already scheduled.
+     *
+     * This method must be called from the main thread.
+     *
+     * @param path the path of the section.
+     * @throws IllegalArgumentException if the path is not that of a section.
+     */
+    public void markDirty(String path) {
+        if (!_paths.contains(path)) {
+            throw new IllegalArgumentException("not a section: " + path);
+        }
+        _dirty.add(path);
+
+        // Tasks can't be scheduled while the plugin is being disabled, but
+        // shutdown() will flush.
+        if (_flushTask == null && DragonFight.PLUGIN.isEnabled()) {
+            _flushTask = Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN, () -> flush(), COALESCE_TICKS);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * If there are unwritten changes, snapshot the changed sections and queue
+     * the snapshots to be written on the background thread.
+     *
+     * Sections that have never been written are snapshotted too, since there
+     * is no cached fragment for them. The other top level keys are always
+     * snapshotted, since they have no dirty flag; usually there are none.
+     *
+     * This method must be called from the main thread.
+     */
+    public void flush() {
+        if (_flushTask != null) {
+            _flushTask.cancel();
+            _flushTask = null;
+        }
+        if (_dirty.isEmpty()) {
+            return;
+        }
+
+        HashMap<String, Map<String, Object>> snapshots = new HashMap<>();
+        for (String path : _paths) {
+            if (_dirty.contains(path) || !_written.contains(path)) {
+                snapshots.put(path, _snapshotter.apply(path));
+                _written.add(path);
+            }
+        }
+        snapshots.put(OTHER_KEYS, _snapshotter.apply(OTHER_KEYS));
+        _dirty.clear();
+
+        File file = new File(DragonFight.PLUGIN.getDataFolder(), _fileName);
+        _lastWrite = getExecutor().submit(() -> write(snapshots, file));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Flush any unwritten changes and wait until all queued writes have
+     * completed.
+     *
+     * This method must be called from the main thread.
+     */
+    public void flushAndWait() {
+        flush();
+        if (_lastWrite != null) {
+            try {
+                _lastWrite.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Timed out or failed writing " + _fileName, ex);
+            }
+            _lastWrite = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Flush any unwritten changes, wait for them to be written and stop the
+     * background thread.
+     *
+     * This method must be called from the main thread when the plugin is
+     * disabled.
+     */
+    public void shutdown() {
+        flushAndWait();
+        if (_executor != null) {
+            _executor.shutdown();
+            try {
+                _executor.awaitTermination(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            _executor = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an immutable deep copy of a configuration section.
+     *
+     * Nested sections become unmodifiable maps and lists become unmodifiable
+     * lists. Other values are assumed to be immutable (strings, numbers and
+     * booleans).
+     *
+     * @param section the section.
+     * @return the copy, with keys in the same order as the section.
+     */
+    public static Map<String, Object> snapshot(ConfigurationSection section) {
+        LinkedHashMap<String, Object> copy = new LinkedHashMap<>();
+        for (String key : section.getKeys(false)) {
+            copy.put(key, snapshotValue(section.get(key)));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an immutable deep copy of a configuration value.
+     *
+     * @param value the value.
+     * @return the copy.
+     */
+    protected static Object snapshotValue(Object value) {
+        if (value instanceof ConfigurationSection) {
+            return snapshot((ConfigurationSection) value);
+        } else if (value instanceof List<?>) {
+            ArrayList<Object> copy = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                copy.add(snapshotValue(element));
+            }
+            return Collections.unmodifiableList(copy);
+        } else {
+            return value;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Serialise the snapshots of changed sections as YAML fragments and
+     * atomically replace the file with the fragments of all sections.
+     *
+     * This method runs on the background thread.
+     *
+     * @param snapshots map from section path to the snapshot of each changed
+     *                  section, and from {@link #OTHER_KEYS} to the snapshot
+     *                  of the other top level keys.
+     * @param file      the file.
+     */
+    protected void write(Map<String, Map<String, Object>> snapshots, File file) {
+        for (Map.Entry<String, Map<String, Object>> entry : snapshots.entrySet()) {
+            _fragments.put(entry.getKey(), serialise(entry.getKey(), entry.getValue()));
+        }
+
+        // Emit the keys of enclosing sections that differ from those of the
+        // previous section, then the section's fragment.
+        StringBuilder contents = new StringBuilder();
+        String[] previousKeys = new String[0];
+        for (String sectionPath : _paths) {
+            String[] keys = sectionPath.split("\\.");
+            int common = 0;
+            while (common < keys.length - 1 && common < previousKeys.length - 1 &&
+                   keys[common].equals(previousKeys[common])) {
+                ++common;
+            }
+            for (int depth = common; depth < keys.length - 1; ++depth) {
+                contents.append(indent(depth)).append(keys[depth]).append(":\n");
+            }
+            contents.append(_fragments.get(sectionPath));
+            previousKeys = keys;
+        }
+        contents.append(_fragments.get(OTHER_KEYS));
+
+        Path path = file.toPath();
+        Path temp = path.resolveSibling(file.getName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(temp, contents.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not save " + file, ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Serialise the snapshot of a section as a YAML fragment, indented
+     * according to the depth of the section.
+     *
+     * Empty lines are kept, since they encode line breaks within multi-line
+     * strings, but are not indented.
+     *
+     * @param sectionPath the path of the section, or {@link #OTHER_KEYS}.
+     * @param snapshot    the snapshot.
+     * @return the fragment, ending with a newline, or an empty string if
+     *         there are no other top level keys.
+     */
+    protected static String serialise(String sectionPath, Map<String, Object> snapshot) {
+        YamlConfiguration yaml = new YamlConfiguration();
+        if (sectionPath.equals(OTHER_KEYS)) {
+            if (snapshot.isEmpty()) {
+                return "";
+            }
+            populate(yaml, snapshot);
+            return yaml.saveToString();
+        }
+
+        String[] keys = sectionPath.split("\\.");
+        populate(yaml.createSection(keys[keys.length - 1]), snapshot);
+
+        String indent = indent(keys.length - 1);
+        StringBuilder fragment = new StringBuilder();
+        for (String line : yaml.saveToString().split("\n")) {
+            if (!line.isEmpty()) {
+                fragment.append(indent);
+            }
+            fragment.append(line).append('\n');
+        }
+        return fragment.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the indentation of YAML keys at the specified depth.
+     *
+     * @param depth the depth, where top level keys are at depth 0.
+     * @return the indentation.
+     */
+    protected static String indent(int depth) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            indent.append("  ");
+        }
+        return indent.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the values of a snapshot in a configuration section.
+     *
+     * @param section  the section.
+     * @param snapshot the snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    protected static void populate(ConfigurationSection section, Map<String, Object> snapshot) {
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            if (entry.getValue() instanceof Map<?, ?>) {
+                populate(section.createSection(entry.getKey()), (Map<String, Object>) entry.getValue());
+            } else {
+                section.set(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the single-threaded executor that writes files, creating it if
+     * necessary.
+     *
+     * @return the executor.
+     */
+    protected ExecutorService getExecutor() {
+        if (_executor == null) {
+            _executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DragonFight-" + _fileName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return _executor;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of ticks after the first change that pending changes are flushed.
+     */
+    private static final long COALESCE_TICKS = 20;
+
+    /**
+     * Maximum time to wait for writes to complete.
+     */
+    private static final long MAX_WAIT_SECONDS = 10;
+
+    /**
+     * The name of the file in the plugin's data folder.
+     */
+    protected final String _fileName;
+
+    /**
+     * The paths of the sections of the file, in order.
+     */
+    protected final List<String> _paths;
+
+    /**
+     * Supplies snapshots of sections, given their paths.
+     */
+    protected final Function<String, Map<String, Object>> _snapshotter;
+
+    /**
+     * Paths of sections with changes that have not been snapshotted.
+     */
+    protected LinkedHashSet<String> _dirty = new LinkedHashSet<>();
+
+    /**
+     * Paths of sections that have been snapshotted at least once.
+     */
+    protected HashSet<String> _written = new HashSet<>();
+
+    /**
+     * Map from section path to the most recently serialised YAML fragment of
+     * the section.
+     *
+     * Only accessed on the background thread.
+     */
+    protected HashMap<String, String> _fragments = new HashMap<>();
+
+    /**
+     * The scheduled flush, or null if none.
+     */
+    protected BukkitTask _flushTask;
+
+    /**
+     * The most recently queued write, or null if none since the last wait.
+     */
+    protected Future<?> _lastWrite;
+
+    /**
+     * Runs writes, in order, on a background thread.
+     */
+    protected ExecutorService _executor;
+} // class ConfigPersister
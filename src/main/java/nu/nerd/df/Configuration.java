@@ -1,6 +1,12 @@
 package nu.nerd.df;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Logger;
@@ -8,6 +14,9 @@ import java.util.logging.Logger;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 
+import nu.nerd.beastmaster.BeastMaster;
+import nu.nerd.beastmaster.DropSet;
+
 // ----------------------------------------------------------------------------
 /**
  * Configuration wrapper.
@@ -24,6 +33,37 @@ public class Configuration {
      */
     public String DEBUG_PREFIX;
 
+    /**
+     * Period in seconds between full scans of the fight world to reconcile the
+     * census of ender dragons with those actually present. Zero or less
+     * disables the audit.
+     */
+    public int DRAGON_AUDIT_PERIOD_SECONDS;
+
+    /**
+     * Radius in blocks about the world origin of the chunks kept loaded when
+     * there is no fight. Zero or less keeps no chunks loaded.
+     */
+    public double IDLE_CHUNK_RADIUS;
+
+    /**
+     * Radius in blocks about the world origin of the chunks kept loaded while
+     * the dragon is being summoned.
+     */
+    public double SUMMONING_CHUNK_RADIUS;
+
+    /**
+     * Radius in blocks about the world origin of the chunks kept loaded during
+     * stages 1 to 10.
+     */
+    public double STAGE_CHUNK_RADIUS;
+
+    /**
+     * Radius in blocks about the world origin of the chunks kept loaded when
+     * only the dragon remains.
+     */
+    public double DRAGON_CHUNK_RADIUS;
+
     /**
      * Current stage number: 0 to 11.
      *
@@ -67,14 +107,6 @@ public class Configuration {
      */
     public UUID FIGHT_OWNER;
 
-    /**
-     * A map from Player UUID to the number of unclaimed dragon kill prizes for
-     * that player.
-     *
-     * The key will be absent if there are no prizes to claim.
-     */
-    public HashMap<UUID, Integer> UNCLAIMED_PRIZES = new HashMap<>();
-
     // ------------------------------------------------------------------------
     /**
      * Default constructor.
@@ -94,7 +126,18 @@ public class Configuration {
      * @return the number of unclaimed prizes accrued to the player.
      */
     public int getUnclaimedPrizes(UUID playerUuid) {
-        return UNCLAIMED_PRIZES.getOrDefault(playerUuid, 0);
+        return (_prizes == null) ? 0 : _prizes.get(playerUuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a map from Player UUID to the number of unclaimed dragon kill
+     * prizes for that player.
+     *
+     * @return a new map containing only the players with prizes to claim.
+     */
+    public Map<UUID, Integer> exportUnclaimedPrizes() {
+        return (_prizes == null) ? new HashMap<>() : _prizes.export();
     }
 
     // ------------------------------------------------------------------------
@@ -107,11 +150,65 @@ public class Configuration {
      *                   decrement).
      * @return the number of unclaimed prizes accrued to the player.
      */
-    public Integer incUnclaimedPrizes(UUID playerUuid, int amount) {
-        return UNCLAIMED_PRIZES.compute(playerUuid, (k, v) -> {
-            int count = (v == null) ? amount : v + amount;
-            return (count > 0) ? count : null;
-        });
+    public int incUnclaimedPrizes(UUID playerUuid, int amount) {
+        return _prizes.add(playerUuid, amount);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all unclaimed prizes.
+     */
+    public void clearUnclaimedPrizes() {
+        _prizes.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the current stage number and record the change in the fight journal.
+     *
+     * @param stageNumber the stage number, from 0 to 11.
+     */
+    public void setStageNumber(int stageNumber) {
+        STAGE_NUMBER = stageNumber;
+        _stateDirty = true;
+        journal(FightJournal.STAGE, stageNumber);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the new stage number and record the change in the fight journal.
+     *
+     * @param stageNumber the new stage number, from 0 to 11.
+     */
+    public void setNewStageNumber(int stageNumber) {
+        NEW_STAGE_NUMBER = stageNumber;
+        _stateDirty = true;
+        journal(FightJournal.NEW_STAGE, stageNumber);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the total boss maximum health and record the change in the fight
+     * journal.
+     *
+     * @param health the total maximum health of the current stage's bosses.
+     */
+    public void setTotalBossMaxHealth(double health) {
+        TOTAL_BOSS_MAX_HEALTH = health;
+        _stateDirty = true;
+        journal(FightJournal.BOSS_HEALTH, health);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the fight owner and record the change in the fight journal.
+     *
+     * @param fightOwner the UUID of the fight owner, or null for none.
+     */
+    public void setFightOwner(UUID fightOwner) {
+        FIGHT_OWNER = fightOwner;
+        _stateDirty = true;
+        journal(FightJournal.OWNER, (fightOwner == null) ? "-" : fightOwner);
     }
 
     // ------------------------------------------------------------------------
@@ -125,6 +222,75 @@ public class Configuration {
         return (stageNumber < 1 || stageNumber > 11) ? null : _stages[stageNumber - 1];
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Reorder stages 1 through 10.
+     *
+     * The contents of each stage (the properties that determine its appearance
+     * and the DropSet that defines its bosses) move to their new positions.
+     * The Stage instances and DropSet IDs stay with the stage numbers. The
+     * final arrangement is computed once from copies of the original stages,
+     * so that each DropSet of a stage that moves is registered exactly once.
+     * The configuration and the BeastMaster configuration are then saved.
+     *
+     * @param order the new order of the stages: order[i] is the number of the
+     *              stage whose contents become stage i + 1. The array must be a
+     *              permutation of the numbers 1 to 10.
+     * @throws IllegalArgumentException if the order is not a permutation of
+     *                                  stages 1 to 10.
+     */
+    public void permuteStages(int[] order) {
+        if (!isStagePermutation(order)) {
+            throw new IllegalArgumentException("invalid stage order: " + Arrays.toString(order));
+        }
+
+        Stage[] oldStages = new Stage[10];
+        DropSet[] oldDrops = new DropSet[10];
+        for (int i = 0; i < 10; ++i) {
+            Stage stage = getStage(i + 1);
+            oldStages[i] = new Stage(i + 1);
+            oldStages[i].copyFrom(stage);
+            oldDrops[i] = BeastMaster.LOOTS.getDropSet(stage.getDropSetId());
+            if (oldDrops[i] == null) {
+                oldDrops[i] = new DropSet(stage.getDropSetId());
+            }
+        }
+
+        for (int i = 0; i < 10; ++i) {
+            int from = order[i] - 1;
+            if (from != i) {
+                Stage stage = getStage(i + 1);
+                stage.copyFrom(oldStages[from]);
+                BeastMaster.LOOTS.addDropSet(new DropSet(stage.getDropSetId(), oldDrops[from]));
+            }
+        }
+
+        save();
+        BeastMaster.CONFIG.save();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified array is a permutation of the stage numbers
+     * 1 to 10.
+     *
+     * @param order the array of stage numbers.
+     * @return true if the array contains each of the numbers 1 to 10 once.
+     */
+    public static boolean isStagePermutation(int[] order) {
+        if (order == null || order.length != 10) {
+            return false;
+        }
+        boolean[] seen = new boolean[10];
+        for (int stageNumber : order) {
+            if (stageNumber < 1 || stageNumber > 10 || seen[stageNumber - 1]) {
+                return false;
+            }
+            seen[stageNumber - 1] = true;
+        }
+        return true;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Reload the fight state.
@@ -133,6 +299,7 @@ public class Configuration {
      * loading the plugin.
      */
     public void reloadFightState() {
+        _persister.flushAndWait();
         DragonFight.PLUGIN.reloadConfig();
         FileConfiguration config = DragonFight.PLUGIN.getConfig();
         Logger logger = DragonFight.PLUGIN.getLogger();
@@ -148,17 +315,38 @@ public class Configuration {
             FIGHT_OWNER = null;
         }
 
-        UNCLAIMED_PRIZES.clear();
+        // Unclaimed prizes are kept in the prize ledger. Older versions kept
+        // them in the config (and briefly the journal); migrate them once.
+        if (_prizes == null) {
+            _prizes = new PrizeLedger(new File(DragonFight.PLUGIN.getDataFolder(), "prizes.dat"));
+        }
+        boolean migratePrizes = !_prizes.exists();
+        _prizes.open();
         ConfigurationSection unclaimedPrizes = config.getConfigurationSection("state.unclaimed-prizes");
-        for (String key : unclaimedPrizes.getKeys(false)) {
-            try {
-                UUID uuid = UUID.fromString(key);
-                // Docs don't say if getInt() throws for malformed.
-                UNCLAIMED_PRIZES.put(uuid, unclaimedPrizes.getInt(key));
-            } catch (IllegalArgumentException ex) {
-                logger.warning("Unclaimed dragon prize registered to invalid UUID: " + key);
+        if (migratePrizes && unclaimedPrizes != null) {
+            for (String key : unclaimedPrizes.getKeys(false)) {
+                try {
+                    UUID uuid = UUID.fromString(key);
+                    // Docs don't say if getInt() throws for malformed.
+                    _prizes.add(uuid, unclaimedPrizes.getInt(key));
+                } catch (IllegalArgumentException ex) {
+                    logger.warning("Unclaimed dragon prize registered to invalid UUID: " + key);
+                }
             }
+            logger.info("Migrated unclaimed prizes of " + _prizes.size() + " players to the prize ledger.");
+        }
+
+        // The journal, if present, is more recent than the state in the
+        // config. Replay it, then compact it into a snapshot of the state.
+        if (_journal == null) {
+            _journal = new FightJournal(new File(DragonFight.PLUGIN.getDataFolder(), "fight.journal"));
+        }
+        if (_journal.exists()) {
+            int records = _journal.replay(this, migratePrizes);
+            logger.info("Replayed " + records + " fight journal records.");
         }
+        _journal.compact(this);
+        _stateDirty = true;
     }
 
     // ------------------------------------------------------------------------
@@ -170,41 +358,165 @@ public class Configuration {
      * progresses.
      */
     public void reloadConfiguration() {
+        _persister.flushAndWait();
         DragonFight.PLUGIN.reloadConfig();
         FileConfiguration config = DragonFight.PLUGIN.getConfig();
 
         LOG_PREFIX = config.getString("settings.log-prefix");
         DEBUG_PREFIX = config.getString("settings.debug-prefix");
+        DRAGON_AUDIT_PERIOD_SECONDS = config.getInt("settings.dragon-audit-period-seconds", 600);
+        IDLE_CHUNK_RADIUS = config.getDouble("settings.chunk-radius.idle", 0);
+        SUMMONING_CHUNK_RADIUS = config.getDouble("settings.chunk-radius.summoning", 48);
+        STAGE_CHUNK_RADIUS = config.getDouble("settings.chunk-radius.stage", 96);
+        DRAGON_CHUNK_RADIUS = config.getDouble("settings.chunk-radius.dragon", 64);
 
         for (int stageNumber = 1; stageNumber <= 11; ++stageNumber) {
             getStage(stageNumber).load(getStageSection(stageNumber));
         }
+
+        // Only stages 1 to 11 are saved; other keys under "stages" are lost.
+        ConfigurationSection stages = config.getConfigurationSection(STAGES_KEY);
+        if (stages != null) {
+            List<String> sectionPaths = getSectionPaths();
+            for (String key : stages.getKeys(false)) {
+                if (!sectionPaths.contains(STAGES_KEY + "." + key)) {
+                    DragonFight.PLUGIN.getLogger().warning("Unrecognised configuration key " + STAGES_KEY + "." + key +
+                                                           " will be removed when the configuration is next saved.");
+                }
+            }
+        }
+        _settingsDirty = true;
     }
 
     // ------------------------------------------------------------------------
     /**
      * Save the configuration.
+     *
+     * Only the sections of the configuration that have changed (the settings,
+     * the fight state and each stage) are saved. The configuration is written a
+     * short time later, on a background thread, together with any other
+     * changes saved in the meantime.
      */
     public void save() {
+        if (_settingsDirty) {
+            _persister.markDirty(SETTINGS_PATH);
+            _settingsDirty = false;
+        }
+        if (_stateDirty) {
+            _persister.markDirty(STATE_PATH);
+            _stateDirty = false;
+        }
+        for (int stageNumber = 1; stageNumber <= 11; ++stageNumber) {
+            if (getStage(stageNumber).isDirty()) {
+                _persister.markDirty(getStagePath(stageNumber));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write any unsaved changes to the configuration file and wait until they
+     * have been written.
+     *
+     * This method must be called when the plugin is disabled.
+     */
+    public void shutdown() {
+        _persister.shutdown();
+        if (_journal != null) {
+            _journal.compact(this);
+            _journal.close();
+        }
+        if (_prizes != null) {
+            _prizes.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a record to the fight journal, if it is open.
+     *
+     * @param fields the record type and its arguments.
+     */
+    protected void journal(Object... fields) {
+        if (_journal != null) {
+            _journal.append(fields);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Store one section of the configuration in the plugin's FileConfiguration
+     * and return an immutable snapshot of it.
+     *
+     * @param path the path of the section: SETTINGS_PATH, STATE_PATH, a
+     *             stage path, or ConfigPersister.OTHER_KEYS for the top level
+     *             keys that this plugin doesn't manage.
+     * @return the snapshot.
+     */
+    protected Map<String, Object> snapshotSection(String path) {
         FileConfiguration config = DragonFight.PLUGIN.getConfig();
-        // Copy defaults.
-        config.set("settings.log-prefix", LOG_PREFIX);
-        config.set("settings.debug-prefix", DEBUG_PREFIX);
+        if (path.equals(ConfigPersister.OTHER_KEYS)) {
+            LinkedHashMap<String, Object> other = new LinkedHashMap<>();
+            for (String key : config.getKeys(false)) {
+                if (!key.equals(SETTINGS_PATH) && !key.equals(STATE_PATH) && !key.equals(STAGES_KEY)) {
+                    other.put(key, ConfigPersister.snapshotValue(config.get(key)));
+                }
+            }
+            return Collections.unmodifiableMap(other);
+
+        } else if (path.equals(SETTINGS_PATH)) {
+            // Copy defaults.
+            config.set("settings.log-prefix", LOG_PREFIX);
+            config.set("settings.debug-prefix", DEBUG_PREFIX);
+            config.set("settings.dragon-audit-period-seconds", DRAGON_AUDIT_PERIOD_SECONDS);
+            config.set("settings.chunk-radius.idle", IDLE_CHUNK_RADIUS);
+            config.set("settings.chunk-radius.summoning", SUMMONING_CHUNK_RADIUS);
+            config.set("settings.chunk-radius.stage", STAGE_CHUNK_RADIUS);
+            config.set("settings.chunk-radius.dragon", DRAGON_CHUNK_RADIUS);
 
-        config.set("state.stage-number", STAGE_NUMBER);
-        config.set("state.new-stage-number", NEW_STAGE_NUMBER);
-        config.set("state.total-boss-max-health", TOTAL_BOSS_MAX_HEALTH);
-        config.set("state.fight-owner", (FIGHT_OWNER == null) ? null : FIGHT_OWNER.toString());
+        } else if (path.equals(STATE_PATH)) {
+            config.set("state.stage-number", STAGE_NUMBER);
+            config.set("state.new-stage-number", NEW_STAGE_NUMBER);
+            config.set("state.total-boss-max-health", TOTAL_BOSS_MAX_HEALTH);
+            config.set("state.fight-owner", (FIGHT_OWNER == null) ? null : FIGHT_OWNER.toString());
 
-        ConfigurationSection unclaimedPrizes = config.createSection("state.unclaimed-prizes");
-        for (Map.Entry<UUID, Integer> entry : UNCLAIMED_PRIZES.entrySet()) {
-            unclaimedPrizes.set(entry.getKey().toString(), entry.getValue());
+            // Migrated to the prize ledger.
+            config.set("state.unclaimed-prizes", null);
+
+        } else {
+            int stageNumber = Integer.parseInt(path.substring(path.lastIndexOf('.') + 1));
+            getStage(stageNumber).save(getStageSection(stageNumber));
         }
 
+        ConfigurationSection section = config.getConfigurationSection(path);
+        return (section != null) ? ConfigPersister.snapshot(section) : Collections.emptyMap();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the path of the configuration section of the specified stage.
+     *
+     * @param stageNumber the stage number in [1,11].
+     * @return the path.
+     */
+    protected static String getStagePath(int stageNumber) {
+        return STAGES_KEY + "." + stageNumber;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the paths of the sections of the configuration file, in order.
+     *
+     * @return the paths.
+     */
+    protected static List<String> getSectionPaths() {
+        ArrayList<String> paths = new ArrayList<>();
+        paths.add(SETTINGS_PATH);
+        paths.add(STATE_PATH);
         for (int stageNumber = 1; stageNumber <= 11; ++stageNumber) {
-            getStage(stageNumber).save(getStageSection(stageNumber));
+            paths.add(getStagePath(stageNumber));
         }
-        DragonFight.PLUGIN.saveConfig();
+        return paths;
     }
 
     // ------------------------------------------------------------------------
@@ -216,13 +528,54 @@ public class Configuration {
      */
     protected ConfigurationSection getStageSection(int stageNumber) {
         FileConfiguration config = DragonFight.PLUGIN.getConfig();
-        return config.getConfigurationSection("stages." + stageNumber);
+        return config.getConfigurationSection(getStagePath(stageNumber));
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * Path of the settings section of the configuration.
+     */
+    private static final String SETTINGS_PATH = "settings";
+
+    /**
+     * Path of the fight state section of the configuration.
+     */
+    private static final String STATE_PATH = "state";
+
+    /**
+     * Top level key enclosing the stage sections of the configuration.
+     */
+    private static final String STAGES_KEY = "stages";
+
     /**
      * {@link Stage}s 1 through 11, in indices 0 through 10, respectively.
      */
     protected Stage[] _stages = new Stage[11];
 
+    /**
+     * Journal of changes to the fight state, or null before the state is
+     * loaded.
+     */
+    protected FightJournal _journal;
+
+    /**
+     * Unclaimed prizes of each player, or null before the state is loaded.
+     */
+    protected PrizeLedger _prizes;
+
+    /**
+     * True if the settings have changed since they were last saved.
+     */
+    protected boolean _settingsDirty;
+
+    /**
+     * True if the fight state has changed since it was last saved.
+     */
+    protected boolean _stateDirty;
+
+    /**
+     * Writes the configuration file behind the main thread.
+     */
+    protected ConfigPersister _persister = new ConfigPersister("config.yml", getSectionPaths(), this::snapshotSection);
+
 } // class Configuration
\ No newline at end of file
@@ -0,0 +1,208 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * A queue of actions to be run on a later tick, drained by a single task.
+ *
+ * Vanilla's DragonBattle updates some of its state a tick after the events
+ * that cause it, e.g. it only references a newly spawned dragon on the next
+ * tick, and some entity properties can't be changed in the tick they are
+ * set. Rather than scheduling a separate task for each such action with a
+ * fixed delay, actions are queued here:
+ * <ul>
+ * <li>{@link #nextTick(TaskScope, Runnable)} runs the action on the next
+ * tick.</li>
+ * <li>{@link #whenDragonKnown(TaskScope, Runnable)} runs the action on the
+ * first tick when the DragonBattle references a dragon, or after
+ * {@link #MAX_WAIT_TICKS} if it never does.</li>
+ * </ul>
+ *
+ * A drain task is scheduled only while actions are queued. Each queued action
+ * belongs to a {@link TaskScope}; if that scope ends before the action is
+ * due, the action is dropped.
+ */
+public class DeferredActions {
+    // ------------------------------------------------------------------------
+    /**
+     * Maximum number of ticks to wait for a condition before running the
+     * action anyway.
+     */
+    public static final int MAX_WAIT_TICKS = 20;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param scope the scope that owns the drain task.
+     */
+    public DeferredActions(TaskScope scope) {
+        _scope = scope;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run an action on the next tick.
+     *
+     * @param owner  the scope that the action belongs to.
+     * @param action the action.
+     */
+    public void nextTick(TaskScope owner, Runnable action) {
+        enqueue(new Entry(owner, null, action));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run an action once the fight world's DragonBattle references a dragon.
+     *
+     * The condition is first checked on the next tick.
+     *
+     * @param owner  the scope that the action belongs to.
+     * @param action the action.
+     */
+    public void whenDragonKnown(TaskScope owner, Runnable action) {
+        enqueue(new Entry(owner,
+                          () -> DragonUtil.getFightWorld().getEnderDragonBattle().getEnderDragon() != null,
+                          action));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of queued actions.
+     *
+     * @return the number of queued actions.
+     */
+    public int size() {
+        return _entries.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an entry to the queue and ensure that the drain task is scheduled.
+     *
+     * @param entry the entry.
+     */
+    protected void enqueue(Entry entry) {
+        _entries.add(entry);
+        if (_drainTask == null || _drainGeneration != _scope.getGeneration()) {
+            _drainGeneration = _scope.getGeneration();
+            _drainTask = _scope.runTask(() -> drain());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run all actions that are due, in the order they were queued.
+     *
+     * Actions queued while draining are run on the next tick at the earliest.
+     * If any actions remain, the drain task is rescheduled for the next tick.
+     * An action that throws is logged and does not prevent the others from
+     * running.
+     */
+    protected void drain() {
+        _drainTask = null;
+        List<Entry> entries = _entries;
+        _entries = new ArrayList<>();
+
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry._owner.getGeneration() != entry._generation) {
+                it.remove();
+            } else if (entry._condition == null ||
+                       entry._condition.getAsBoolean() ||
+                       ++entry._waitedTicks >= MAX_WAIT_TICKS) {
+                it.remove();
+                try {
+                    entry._action.run();
+                } catch (RuntimeException ex) {
+                    DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Deferred action failed", ex);
+                }
+            }
+        }
+
+        // Keep the waiting entries ahead of any queued while draining.
+        if (!entries.isEmpty()) {
+            entries.addAll(_entries);
+            _entries = entries;
+            if (_drainTask == null) {
+                _drainGeneration = _scope.getGeneration();
+                _drainTask = _scope.runTask(() -> drain());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A queued action.
+     */
+    protected static final class Entry {
+        /**
+         * Constructor.
+         *
+         * @param owner     the scope that the action belongs to.
+         * @param condition the condition for running the action, or null to
+         *                  run it on the next tick.
+         * @param action    the action.
+         */
+        Entry(TaskScope owner, BooleanSupplier condition, Runnable action) {
+            _owner = owner;
+            _generation = owner.getGeneration();
+            _condition = condition;
+            _action = action;
+        }
+
+        /**
+         * The scope that the action belongs to.
+         */
+        final TaskScope _owner;
+
+        /**
+         * The generation of the owning scope when the action was queued.
+         */
+        final int _generation;
+
+        /**
+         * The condition for running the action, or null if unconditional.
+         */
+        final BooleanSupplier _condition;
+
+        /**
+         * The action.
+         */
+        final Runnable _action;
+
+        /**
+         * The number of ticks the condition has been checked and found false.
+         */
+        int _waitedTicks;
+    } // class Entry
+
+    // ------------------------------------------------------------------------
+    /**
+     * The scope that owns the drain task.
+     */
+    protected final TaskScope _scope;
+
+    /**
+     * The queued actions, in the order they were queued.
+     */
+    protected List<Entry> _entries = new ArrayList<>();
+
+    /**
+     * The scheduled drain task, or null if none.
+     */
+    protected BukkitTask _drainTask;
+
+    /**
+     * The generation of the scope when the drain task was scheduled.
+     */
+    protected int _drainGeneration;
+} // class DeferredActions
@@ -0,0 +1,125 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.World;
+import org.bukkit.entity.EnderDragon;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * Keeps count of the ender dragons in the fight world that could be the
+ * dragon of the vanilla DragonBattle, i.e. excluding stage bosses that happen
+ * to be dragons.
+ *
+ * The census is maintained from spawn, death, chunk and entity load events,
+ * so that surplus dragons can be detected as soon as they appear, without
+ * scanning every entity in the fight world. Since some dragons appear without
+ * any event (see {@link FightState#removeSurplusDragons()}), the census can be
+ * reconciled with the world by an occasional {@link #audit(World)}.
+ */
+public class DragonCensus {
+    // ------------------------------------------------------------------------
+    /**
+     * Add a dragon to the census.
+     *
+     * @param dragon the dragon.
+     * @return true if the dragon was not previously counted.
+     */
+    public boolean add(EnderDragon dragon) {
+        return _dragons.put(dragon.getUniqueId(), dragon) == null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a dragon from the census.
+     *
+     * @param entity the dragon.
+     * @return true if the dragon was previously counted.
+     */
+    public boolean remove(Entity entity) {
+        return _dragons.remove(entity.getUniqueId()) != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of dragons in the world.
+     *
+     * @return the number of dragons in the world.
+     */
+    public int size() {
+        removeInvalid();
+        return _dragons.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the dragons in the world.
+     *
+     * @return a new list of the dragons in the world.
+     */
+    public List<EnderDragon> getDragons() {
+        removeInvalid();
+        return new ArrayList<>(_dragons.values());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reconcile the census with the dragons that are actually in the world.
+     *
+     * This method scans every entity in the world, so it should only be called
+     * infrequently.
+     *
+     * @param world the fight world.
+     * @return the number of dragons that were added to or removed from the
+     *         census.
+     */
+    public int audit(World world) {
+        LinkedHashMap<UUID, EnderDragon> actual = new LinkedHashMap<>();
+        Collection<EnderDragon> dragons = world.getEntitiesByClass(EnderDragon.class);
+        for (EnderDragon dragon : dragons) {
+            if (!DragonFight.ROLES.has(dragon, EntityRoles.BOSS)) {
+                actual.put(dragon.getUniqueId(), dragon);
+            }
+        }
+
+        int discrepancies = 0;
+        for (UUID uuid : _dragons.keySet()) {
+            if (!actual.containsKey(uuid)) {
+                ++discrepancies;
+            }
+        }
+        for (UUID uuid : actual.keySet()) {
+            if (!_dragons.containsKey(uuid)) {
+                ++discrepancies;
+            }
+        }
+
+        _dragons = actual;
+        return discrepancies;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove dragons that are no longer in the world.
+     */
+    protected void removeInvalid() {
+        Iterator<EnderDragon> it = _dragons.values().iterator();
+        while (it.hasNext()) {
+            if (!it.next().isValid()) {
+                it.remove();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from UUID to dragon, in order of discovery.
+     */
+    protected LinkedHashMap<UUID, EnderDragon> _dragons = new LinkedHashMap<>();
+} // class DragonCensus
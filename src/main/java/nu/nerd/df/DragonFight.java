@@ -25,11 +25,26 @@ public class DragonFight extends JavaPlugin {
      */
     public static Configuration CONFIG = new Configuration();
 
+    /**
+     * Cache of entity fight roles as singleton.
+     */
+    public static EntityRoles ROLES = new EntityRoles();
+
+    /**
+     * Index of players near the arena as singleton.
+     */
+    public static ArenaPlayers ARENA = new ArenaPlayers(FightState.NEARBY_RADIUS);
+
     /**
      * Current fight as singleton.
      */
     public static FightState FIGHT = new FightState();
 
+    /**
+     * Startup phase timing and readiness as singleton.
+     */
+    public static Startup STARTUP = new Startup();
+
     // ------------------------------------------------------------------------
     /**
      * @see org.bukkit.plugin.java.JavaPlugin#onEnable()
@@ -37,15 +52,27 @@ public class DragonFight extends JavaPlugin {
     @Override
     public void onEnable() {
         PLUGIN = this;
-        saveDefaultConfig();
-        CONFIG.reloadConfiguration();
-        CONFIG.reloadFightState();
+        STARTUP.begin();
+        STARTUP.time("configuration", () -> {
+            saveDefaultConfig();
+            CONFIG.reloadConfiguration();
+        });
+        STARTUP.time("fight-state", () -> CONFIG.reloadFightState());
 
-        addCommandExecutor(new DFExecutor());
-        addCommandExecutor(new DragonExecutor());
-        addCommandExecutor(new DragonFightExecutor());
+        STARTUP.time("commands", () -> {
+            addCommandExecutor(new DFExecutor());
+            addCommandExecutor(new DragonExecutor());
+            addCommandExecutor(new DragonFightExecutor());
+        });
 
+        STARTUP.time("arena-index", () -> {
+            Bukkit.getPluginManager().registerEvents(ROLES, this);
+            Bukkit.getPluginManager().registerEvents(ARENA, this);
+            ARENA.rebuild();
+        });
         Bukkit.getPluginManager().registerEvents(FIGHT, this);
+
+        // The fight records the remaining phases and signifies readiness.
         FIGHT.onEnable();
     }
 
@@ -57,6 +84,7 @@ public class DragonFight extends JavaPlugin {
     public void onDisable() {
         FIGHT.onDisable();
         CONFIG.save();
+        CONFIG.shutdown();
     }
 
     // ------------------------------------------------------------------------
@@ -97,6 +97,40 @@ public class DragonUtil {
         return false;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return a key that uniquely identifies a chunk within a world.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the key.
+     */
+    public static long getChunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate of a chunk key.
+     *
+     * @param chunkKey the key returned by {@link #getChunkKey(int, int)}.
+     * @return the chunk X coordinate.
+     */
+    public static int getChunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate of a chunk key.
+     *
+     * @param chunkKey the key returned by {@link #getChunkKey(int, int)}.
+     * @return the chunk Z coordinate.
+     */
+    public static int getChunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the magnitude of the X and Z components of location, i.e. the
@@ -0,0 +1,289 @@
+package nu.nerd.df;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.server.ServerCommandEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+
+import nu.nerd.beastmaster.BeastMaster;
+import nu.nerd.beastmaster.mobs.MobType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Caches the fight roles of entities as a bit mask.
+ *
+ * Working out whether an entity has a particular tag or BeastMaster group, as
+ * done by {@link DragonUtil#hasTagOrGroup(Entity, String)}, requires looking up
+ * the entity's scoreboard tags and mob type, and then deriving the mob type's
+ * groups. Event handlers that fire for every entity in the End do that check
+ * several times per event, so the roles of each entity are computed once and
+ * cached here, reducing each check to a single bit test.
+ *
+ * Cached roles are invalidated:
+ * <ul>
+ * <li>for a single entity, when this plugin adds a tag to it with
+ * {@link #addTag(Entity, String)},</li>
+ * <li>for a single entity, when it dies or is unloaded,</li>
+ * <li>for all entities, when a command that could redefine BeastMaster mob
+ * types or change scoreboard tags is run.</li>
+ * </ul>
+ * When the cache is full, the least recently used entry is evicted.
+ *
+ * Tags can also be changed without any event that reaches this class, e.g. by
+ * datapacks, other plugins or commands run through /execute, so cached roles
+ * may be stale. Decisions that destroy entities therefore use
+ * {@link #hasCurrent(Entity, int)}, which re-reads the entity's tags.
+ */
+public class EntityRoles implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Role bit of entities with the "df-entity" tag or group.
+     */
+    public static final int ENTITY = 1;
+
+    /**
+     * Role bit of entities with the "df-boss" tag or group.
+     */
+    public static final int BOSS = 2;
+
+    /**
+     * Role bit of entities with the "df-support" tag or group.
+     */
+    public static final int SUPPORT = 4;
+
+    /**
+     * Role bit of end crystals tagged as pillar crystals.
+     */
+    public static final int PILLAR_CRYSTAL = 8;
+
+    /**
+     * Role bit of end crystals tagged as dragon-spawning crystals.
+     */
+    public static final int SPAWNING_CRYSTAL = 16;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified entity has any of the specified role bits.
+     *
+     * @param entity the entity.
+     * @param roles  a bitwise OR of role bits.
+     * @return true if the entity has any of the role bits.
+     */
+    public boolean has(Entity entity, int roles) {
+        return (getRoles(entity) & roles) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified entity currently has any of the specified
+     * role bits, recomputing its roles rather than trusting the cache.
+     *
+     * The recomputed roles replace the cached ones.
+     *
+     * @param entity the entity.
+     * @param roles  a bitwise OR of role bits.
+     * @return true if the entity has any of the role bits.
+     */
+    public boolean hasCurrent(Entity entity, int roles) {
+        int current = computeRoles(entity);
+        _roles.put(entity.getUniqueId(), current);
+        return (current & roles) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the role bits of the specified entity, computing them if they are
+     * not already cached.
+     *
+     * @param entity the entity.
+     * @return the bitwise OR of the entity's role bits.
+     */
+    public int getRoles(Entity entity) {
+        UUID uuid = entity.getUniqueId();
+        Integer roles = _roles.get(uuid);
+        if (roles == null) {
+            roles = computeRoles(entity);
+            _roles.put(uuid, roles);
+        }
+        return roles;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a scoreboard tag to the entity and update its cached roles.
+     *
+     * @param entity the entity.
+     * @param tag    the tag.
+     */
+    public void addTag(Entity entity, String tag) {
+        entity.getScoreboardTags().add(tag);
+        invalidate(entity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the cached roles of the specified entity.
+     *
+     * @param entity the entity.
+     */
+    public void invalidate(Entity entity) {
+        _roles.remove(entity.getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the cached roles of all entities.
+     */
+    public void invalidateAll() {
+        _roles.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the cached roles of entities when they die.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    protected void onEntityDeath(EntityDeathEvent event) {
+        invalidate(event.getEntity());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the cached roles of entities when they are unloaded.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    protected void onEntitiesUnload(EntitiesUnloadEvent event) {
+        for (Entity entity : event.getEntities()) {
+            invalidate(entity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invalidate all cached roles when a player runs a command that may change
+     * them.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onPlayerCommandPreprocess(PlayerCommandPreprocessEvent event) {
+        onCommand(event.getMessage());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invalidate all cached roles when the console or a command block runs a
+     * command that may change them.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onServerCommand(ServerCommandEvent event) {
+        onCommand(event.getCommand());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invalidate all cached roles if the command line could redefine BeastMaster
+     * mob types, reload BeastMaster, or change scoreboard tags.
+     *
+     * Mob type groups are only changed by /beast-mob and by reloading
+     * BeastMaster (/beastmaster reload); BeastMaster's other commands (items,
+     * loot, objectives and zones) don't affect them. Scoreboard tags are
+     * changed by /tag, by /data (the Tags NBT list) and by either of those run
+     * through /execute.
+     *
+     * @param commandLine the command line, with or without leading '/'.
+     */
+    protected void onCommand(String commandLine) {
+        String command = commandLine.startsWith("/") ? commandLine.substring(1) : commandLine;
+        int space = command.indexOf(' ');
+        if (space >= 0) {
+            command = command.substring(0, space);
+        }
+        int colon = command.indexOf(':');
+        if (colon >= 0) {
+            command = command.substring(colon + 1);
+        }
+
+        command = command.toLowerCase();
+        if (command.equals("beast-mob") || command.equals("beastmaster") ||
+            command.equals("tag") || command.equals("data") || command.equals("execute")) {
+            invalidateAll();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compute the role bits of an entity from its scoreboard tags and the
+     * groups of its BeastMaster mob type.
+     *
+     * @param entity the entity.
+     * @return the bitwise OR of the entity's role bits.
+     */
+    protected static int computeRoles(Entity entity) {
+        int roles = getTagRoles(entity.getScoreboardTags());
+        MobType mobType = BeastMaster.getMobType(entity);
+        if (mobType != null) {
+            @SuppressWarnings("unchecked")
+            Collection<String> groups = (Collection<String>) mobType.getDerivedProperty("groups").getValue();
+            if (groups != null) {
+                roles |= getTagRoles(groups);
+            }
+        }
+        return roles;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the role bits corresponding to a collection of tags or groups.
+     *
+     * @param tags the scoreboard tags or BeastMaster groups.
+     * @return the bitwise OR of the corresponding role bits.
+     */
+    protected static int getTagRoles(Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return 0;
+        }
+
+        int roles = 0;
+        if (tags.contains(FightState.ENTITY_TAG)) {
+            roles |= ENTITY;
+        }
+        if (tags.contains(FightState.BOSS_TAG)) {
+            roles |= BOSS;
+        }
+        if (tags.contains(FightState.SUPPORT_TAG)) {
+            roles |= SUPPORT;
+        }
+        if (tags.contains(FightState.PILLAR_CRYSTAL_TAG)) {
+            roles |= PILLAR_CRYSTAL;
+        }
+        if (tags.contains(FightState.SPAWNING_CRYSTAL_TAG)) {
+            roles |= SPAWNING_CRYSTAL;
+        }
+        return roles;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Maximum number of entities whose roles are cached before the least
+     * recently used entry is evicted.
+     */
+    private static final int MAX_CACHED_ENTITIES = 4096;
+
+    /**
+     * Map from entity UUID to cached role bits, in access order.
+     */
+    protected LinkedHashMap<UUID, Integer> _roles = new LinkedHashMap<UUID, Integer>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Integer> eldest) {
+            return size() > MAX_CACHED_ENTITIES;
+        }
+    };
+} // class EntityRoles
@@ -0,0 +1,213 @@
+package nu.nerd.df;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * An index of the entities that participate in the current dragon fight,
+ * keyed by UUID and grouped by {@link Role}.
+ *
+ * The index is maintained incrementally from entity events, so that cleaning
+ * up and counting fight entities costs time proportional to the number of
+ * fight entities, rather than the number of entities in the fight world.
+ *
+ * Entities can be removed from the world without any event that Spigot passes
+ * on to plugins (e.g. projectiles that despawn). Such entities are dropped
+ * from the index by {@link #removeInvalid()}, which is called periodically.
+ */
+public class FightEntities {
+    // ------------------------------------------------------------------------
+    /**
+     * The role of an entity in the fight.
+     */
+    public enum Role {
+        /**
+         * A stage boss.
+         */
+        BOSS(EntityRoles.BOSS),
+
+        /**
+         * A support mob, spawned by a boss.
+         */
+        SUPPORT(EntityRoles.SUPPORT),
+
+        /**
+         * A projectile launched by any fight entity, including the dragon.
+         */
+        PROJECTILE(EntityRoles.ENTITY);
+
+        /**
+         * Constructor.
+         *
+         * @param roleBits the {@link EntityRoles} bits that entities with
+         *                 this role have.
+         */
+        Role(int roleBits) {
+            _roleBits = roleBits;
+        }
+
+        /**
+         * Return the {@link EntityRoles} bits that entities with this role
+         * have.
+         *
+         * @return the role bits.
+         */
+        public int getRoleBits() {
+            return _roleBits;
+        }
+
+        /**
+         * The {@link EntityRoles} bits that entities with this role have.
+         */
+        private final int _roleBits;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Default constructor.
+     */
+    public FightEntities() {
+        for (Role role : Role.values()) {
+            _entities.put(role, new LinkedHashMap<>());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the specified entity to the index with the specified role.
+     *
+     * If the entity is already indexed under a different role, it is moved to
+     * the new role.
+     *
+     * @param entity the entity.
+     * @param role   the role of the entity in the fight.
+     */
+    public void add(Entity entity, Role role) {
+        UUID uuid = entity.getUniqueId();
+        Role oldRole = _roles.put(uuid, role);
+        if (oldRole != null && oldRole != role) {
+            _entities.get(oldRole).remove(uuid);
+        }
+        _entities.get(role).put(uuid, entity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the specified entity from the index.
+     *
+     * @param entity the entity.
+     * @return the role the entity had, or null if it was not indexed.
+     */
+    public Role remove(Entity entity) {
+        UUID uuid = entity.getUniqueId();
+        Role role = _roles.remove(uuid);
+        if (role != null) {
+            _entities.get(role).remove(uuid);
+        }
+        return role;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the role of the specified entity, or null if not indexed.
+     *
+     * @param entity the entity.
+     * @return the role of the specified entity, or null if not indexed.
+     */
+    public Role getRole(Entity entity) {
+        return _roles.get(entity.getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an unmodifiable view of the indexed entities with the specified
+     * role.
+     *
+     * @param role the role.
+     * @return the entities with that role.
+     */
+    public Collection<Entity> getEntities(Role role) {
+        return Collections.unmodifiableCollection(_entities.get(role).values());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of indexed entities with the specified role.
+     *
+     * Note that this count may include entities that have been removed from
+     * the world since the last call to {@link #removeInvalid()}.
+     *
+     * @param role the role.
+     * @return the number of indexed entities with that role.
+     */
+    public int count(Role role) {
+        return _entities.get(role).size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all entities with the specified role from the world and from the
+     * index.
+     *
+     * Entities whose tags no longer give them the role are dropped from the
+     * index but left in the world, since the cached roles they were indexed by
+     * may be stale.
+     *
+     * @param role the role.
+     * @return the number of entities that were valid (in the world) and were
+     *         removed.
+     */
+    public int removeAll(Role role) {
+        int removed = 0;
+        LinkedHashMap<UUID, Entity> entities = _entities.get(role);
+        for (Entity entity : entities.values()) {
+            if (entity.isValid() && DragonFight.ROLES.hasCurrent(entity, role.getRoleBits())) {
+                entity.remove();
+                ++removed;
+            }
+            _roles.remove(entity.getUniqueId());
+        }
+        entities.clear();
+        return removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove entities from the index that are no longer in the world, because
+     * they died, despawned or were removed by a plugin.
+     *
+     * Entities that are merely unloaded are removed from the index by
+     * {@link #remove(Entity)} when their chunk unloads.
+     */
+    public void removeInvalid() {
+        for (LinkedHashMap<UUID, Entity> entities : _entities.values()) {
+            Iterator<Entity> it = entities.values().iterator();
+            while (it.hasNext()) {
+                Entity entity = it.next();
+                if (!entity.isValid()) {
+                    it.remove();
+                    _roles.remove(entity.getUniqueId());
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from entity UUID to role.
+     */
+    protected HashMap<UUID, Role> _roles = new HashMap<>();
+
+    /**
+     * Map from role to the entities with that role, keyed by UUID.
+     */
+    protected EnumMap<Role, LinkedHashMap<UUID, Entity>> _entities = new EnumMap<>(Role.class);
+} // class FightEntities
@@ -0,0 +1,370 @@
+package nu.nerd.df;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+
+// ----------------------------------------------------------------------------
+/**
+ * An append-only journal of changes to the fight state.
+ *
+ * Each change to the stage numbers, total boss maximum health or fight owner
+ * is appended to the journal as a single line of text. Lines
+ * appended during a tick are written and synced to disk together on the next
+ * tick, with the sync done on a background thread. That is much cheaper
+ * than rewriting the whole configuration file and, since each line describes
+ * a complete change, a crash can lose at most the changes of the last tick,
+ * rather than leaving a half-written state.
+ *
+ * To keep the journal short, it is periodically compacted: a snapshot of the
+ * current state is written to a temporary file that is then renamed over the
+ * journal. On startup, the journal is replayed to recover the exact fight
+ * state and then compacted.
+ *
+ * The journal format is one record per line, with space-separated fields:
+ * <ul>
+ * <li>{@code snapshot} - reset the state to that of no fight, before the
+ * records of a compacted snapshot.</li>
+ * <li>{@code stage <n>} - set the stage number.</li>
+ * <li>{@code new-stage <n>} - set the new stage number.</li>
+ * <li>{@code boss-health <health>} - set the total boss maximum health.</li>
+ * <li>{@code owner <uuid>|-} - set or clear the fight owner.</li>
+ * <li>{@code prizes <uuid> <delta>} - add to (or subtract from) a player's
+ * unclaimed prizes. Unclaimed prizes are now kept in the {@link PrizeLedger},
+ * so these records are no longer written, and are only replayed when migrating
+ * to the ledger.</li>
+ * </ul>
+ */
+public class FightJournal {
+    // ------------------------------------------------------------------------
+    /**
+     * Record type: the start of a snapshot.
+     */
+    public static final String SNAPSHOT = "snapshot";
+
+    /**
+     * Record type: set the stage number.
+     */
+    public static final String STAGE = "stage";
+
+    /**
+     * Record type: set the new stage number.
+     */
+    public static final String NEW_STAGE = "new-stage";
+
+    /**
+     * Record type: set the total boss maximum health.
+     */
+    public static final String BOSS_HEALTH = "boss-health";
+
+    /**
+     * Record type: set the fight owner.
+     */
+    public static final String OWNER = "owner";
+
+    /**
+     * Record type: change a player's unclaimed prizes.
+     */
+    public static final String PRIZES = "prizes";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param file the journal file.
+     */
+    public FightJournal(File file) {
+        _file = file;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the journal file exists.
+     *
+     * @return true if the journal file exists.
+     */
+    public boolean exists() {
+        return _file.isFile();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replay the journal, applying each record to the configuration.
+     *
+     * Malformed records, such as a partial last line after a crash, are logged
+     * and skipped.
+     *
+     * @param config      the configuration.
+     * @param applyPrizes if true, apply legacy prize records to the unclaimed
+     *                    prizes; otherwise ignore them.
+     * @return the number of records applied.
+     */
+    public int replay(Configuration config, boolean applyPrizes) {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(_file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    apply(config, line.split(" "), applyPrizes);
+                    ++count;
+                } catch (RuntimeException ex) {
+                    DragonFight.PLUGIN.getLogger().warning("Skipped malformed fight journal record: " + line);
+                }
+            }
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not read " + _file, ex);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a record to the journal.
+     *
+     * The record is written and synced on the next tick. This method must be
+     * called from the main thread, and does nothing if the journal is not
+     * open.
+     *
+     * @param fields the record type and its arguments.
+     */
+    public void append(Object... fields) {
+        if (_writer == null) {
+            return;
+        }
+
+        try {
+            for (int i = 0; i < fields.length; ++i) {
+                if (i > 0) {
+                    _writer.write(' ');
+                }
+                _writer.write(String.valueOf(fields[i]));
+            }
+            _writer.write('\n');
+            ++_recordsSinceCompaction;
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not append to " + _file, ex);
+        }
+
+        if (!_syncScheduled && DragonFight.PLUGIN.isEnabled()) {
+            _syncScheduled = true;
+            Bukkit.getScheduler().runTask(DragonFight.PLUGIN, () -> sync());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the journal with a snapshot of the current fight state and open
+     * it for appending.
+     *
+     * @param config the configuration.
+     */
+    public void compact(Configuration config) {
+        closeWriter();
+
+        File temp = new File(_file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp);
+                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                writer.write(SNAPSHOT + "\n");
+                writer.write(STAGE + " " + config.STAGE_NUMBER + "\n");
+                writer.write(NEW_STAGE + " " + config.NEW_STAGE_NUMBER + "\n");
+                writer.write(BOSS_HEALTH + " " + config.TOTAL_BOSS_MAX_HEALTH + "\n");
+                writer.write(OWNER + " " + (config.FIGHT_OWNER == null ? "-" : config.FIGHT_OWNER) + "\n");
+                writer.flush();
+                out.getChannel().force(true);
+            }
+            try {
+                Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not compact " + _file, ex);
+        }
+
+        openWriter();
+        _recordsSinceCompaction = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write and sync any buffered records and close the journal.
+     */
+    public void close() {
+        closeWriter();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the records appended during the previous tick and sync them to
+     * disk on a background thread, compacting the journal if it has grown too long.
+     */
+    protected void sync() {
+        _syncScheduled = false;
+        if (_writer == null) {
+            return;
+        }
+
+        if (_recordsSinceCompaction >= MAX_RECORDS_BEFORE_COMPACTION) {
+            compact(DragonFight.CONFIG);
+            return;
+        }
+
+        try {
+            _writer.flush();
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not write " + _file, ex);
+            return;
+        }
+
+        FileChannel channel = _channel;
+        Bukkit.getScheduler().runTaskAsynchronously(DragonFight.PLUGIN, () -> {
+            try {
+                channel.force(false);
+            } catch (IOException ex) {
+                // The channel may have been closed by compaction, which syncs.
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the journal file for appending.
+     */
+    protected void openWriter() {
+        try {
+            FileOutputStream out = new FileOutputStream(_file, true);
+            _channel = out.getChannel();
+            _writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not open " + _file, ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write and sync any buffered records and close the journal file, if open.
+     */
+    protected void closeWriter() {
+        if (_writer != null) {
+            try {
+                _writer.flush();
+                _channel.force(false);
+                _writer.close();
+            } catch (IOException ex) {
+                DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not close " + _file, ex);
+            }
+            _writer = null;
+            _channel = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply a single record to the configuration.
+     *
+     * @param config      the configuration.
+     * @param fields      the fields of the record.
+     * @param applyPrizes if true, apply legacy prize records.
+     * @throws RuntimeException if the record is malformed.
+     */
+    protected static void apply(Configuration config, String[] fields, boolean applyPrizes) {
+        switch (fields[0]) {
+        case SNAPSHOT:
+            config.STAGE_NUMBER = 0;
+            config.NEW_STAGE_NUMBER = 0;
+            config.TOTAL_BOSS_MAX_HEALTH = 0;
+            config.FIGHT_OWNER = null;
+            if (applyPrizes) {
+                config.clearUnclaimedPrizes();
+            }
+            break;
+        case STAGE:
+            config.STAGE_NUMBER = parseStageNumber(fields[1]);
+            break;
+        case NEW_STAGE:
+            config.NEW_STAGE_NUMBER = parseStageNumber(fields[1]);
+            break;
+        case BOSS_HEALTH:
+            config.TOTAL_BOSS_MAX_HEALTH = Double.parseDouble(fields[1]);
+            break;
+        case OWNER:
+            config.FIGHT_OWNER = fields[1].equals("-") ? null : UUID.fromString(fields[1]);
+            break;
+        case PRIZES:
+            UUID uuid = UUID.fromString(fields[1]);
+            int delta = Integer.parseInt(fields[2]);
+            if (applyPrizes) {
+                config.incUnclaimedPrizes(uuid, delta);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("unknown record type: " + fields[0]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse a stage number, throwing if out of range.
+     *
+     * @param text the text.
+     * @return the stage number, 0 to 11.
+     * @throws IllegalArgumentException if not a valid stage number.
+     */
+    protected static int parseStageNumber(String text) {
+        int stageNumber = Integer.parseInt(text);
+        if (stageNumber < 0 || stageNumber > 11) {
+            throw new IllegalArgumentException("invalid stage number: " + stageNumber);
+        }
+        return stageNumber;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of records appended after which the journal is compacted.
+     */
+    private static final int MAX_RECORDS_BEFORE_COMPACTION = 1000;
+
+    /**
+     * The journal file.
+     */
+    protected final File _file;
+
+    /**
+     * Buffers appended records, or null if the journal is not open.
+     */
+    protected BufferedWriter _writer;
+
+    /**
+     * The channel of the open journal file, used to sync it.
+     */
+    protected FileChannel _channel;
+
+    /**
+     * True if a sync has been scheduled for the next tick.
+     */
+    protected boolean _syncScheduled;
+
+    /**
+     * Number of records appended since the journal was last compacted.
+     */
+    protected int _recordsSinceCompaction;
+} // class FightJournal
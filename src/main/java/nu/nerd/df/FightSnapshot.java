@@ -0,0 +1,632 @@
+package nu.nerd.df;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * A compact binary snapshot of the entities in the current fight: the UUIDs
+ * of the pillar crystals and of the bosses (with their maximum health), along
+ * with the stage number and fight owner.
+ *
+ * The snapshot is updated as crystals and bosses join and leave the fight, and
+ * is written on the tick after it changes, so that several changes in one tick
+ * are written together. The contents are encoded on the main thread and
+ * written to a temporary file, synced and renamed over the snapshot on a
+ * background thread.
+ *
+ * On startup, the snapshot tells recovery exactly which entities to expect, so
+ * that they can be resolved by UUID as they load rather than by scanning the
+ * chunks around the arena.
+ *
+ * Bosses whose chunks unload are still part of the fight and stay in the
+ * snapshot; only bosses that die or are removed leave it.
+ *
+ * While a stage transition animation is in progress, the snapshot also holds
+ * its {@link Transition} state, so that the transition can resume where it
+ * left off after a restart.
+ */
+public class FightSnapshot {
+    // ------------------------------------------------------------------------
+    /**
+     * The persistent state of a stage transition animation.
+     */
+    public static final class Transition {
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param stageNumber   the stage number being transitioned to.
+         * @param crystal       the UUID of the pillar crystal being replaced.
+         * @param elapsedTicks  the number of ticks of the transition that have
+         *                      elapsed.
+         * @param seed          the random seed of the transition's cue
+         *                      schedule.
+         * @param spawnLocation the chosen boss spawn location, or null if not
+         *                      yet chosen.
+         */
+        public Transition(int stageNumber, UUID crystal, int elapsedTicks, long seed, Location spawnLocation) {
+            _stageNumber = stageNumber;
+            _crystal = crystal;
+            _elapsedTicks = elapsedTicks;
+            _seed = seed;
+            _hasSpawnLocation = (spawnLocation != null);
+            _x = _hasSpawnLocation ? spawnLocation.getX() : 0;
+            _y = _hasSpawnLocation ? spawnLocation.getY() : 0;
+            _z = _hasSpawnLocation ? spawnLocation.getZ() : 0;
+            _yaw = _hasSpawnLocation ? spawnLocation.getYaw() : 0;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return a copy of this transition state with a different elapsed
+         * tick count.
+         *
+         * @param elapsedTicks the number of elapsed ticks.
+         * @param world        the fight world.
+         * @return the updated transition state.
+         */
+        public Transition withElapsedTicks(int elapsedTicks, World world) {
+            return new Transition(_stageNumber, _crystal, elapsedTicks, _seed, getSpawnLocation(world));
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the stage number being transitioned to.
+         *
+         * @return the stage number being transitioned to.
+         */
+        public int getStageNumber() {
+            return _stageNumber;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the UUID of the pillar crystal being replaced.
+         *
+         * @return the UUID of the pillar crystal being replaced.
+         */
+        public UUID getCrystal() {
+            return _crystal;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the number of ticks of the transition that have elapsed.
+         *
+         * @return the number of elapsed ticks.
+         */
+        public int getElapsedTicks() {
+            return _elapsedTicks;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the random seed of the transition's cue schedule, from which
+         * the same cues can be rebuilt on resumption.
+         *
+         * @return the random seed.
+         */
+        public long getSeed() {
+            return _seed;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the chosen boss spawn location.
+         *
+         * @param world the fight world.
+         * @return the boss spawn location, or null if not yet chosen.
+         */
+        public Location getSpawnLocation(World world) {
+            return _hasSpawnLocation ? new Location(world, _x, _y, _z, _yaw, 0) : null;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * The stage number being transitioned to.
+         */
+        private final int _stageNumber;
+
+        /**
+         * The UUID of the pillar crystal being replaced.
+         */
+        private final UUID _crystal;
+
+        /**
+         * The number of elapsed ticks.
+         */
+        private final int _elapsedTicks;
+
+        /**
+         * The random seed of the cue schedule.
+         */
+        private final long _seed;
+
+        /**
+         * True if the boss spawn location has been chosen.
+         */
+        private final boolean _hasSpawnLocation;
+
+        /**
+         * X coordinate of the boss spawn location.
+         */
+        private final double _x;
+
+        /**
+         * Y coordinate of the boss spawn location.
+         */
+        private final double _y;
+
+        /**
+         * Z coordinate of the boss spawn location.
+         */
+        private final double _z;
+
+        /**
+         * Yaw of the boss spawn location.
+         */
+        private final float _yaw;
+    } // class Transition
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param fileName the name of the file in the plugin's data folder.
+     */
+    public FightSnapshot(String fileName) {
+        _fileName = fileName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the snapshot file exists.
+     *
+     * @return true if the snapshot file exists.
+     */
+    public boolean exists() {
+        return getFile().isFile();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the snapshot file, replacing the current contents.
+     *
+     * @return true if the file exists and was loaded; false if it is absent or
+     *         unreadable, in which case the snapshot is empty.
+     */
+    public boolean load() {
+        _crystals.clear();
+        _bosses.clear();
+        _stageNumber = 0;
+        _fightOwner = null;
+        _transition = null;
+
+        File file = getFile();
+        if (!file.isFile()) {
+            return false;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            int version = (buffer.getInt() == MAGIC) ? buffer.getInt() : 0;
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unrecognised fight snapshot format");
+            }
+            _stageNumber = buffer.getInt();
+            _fightOwner = readUuid(buffer);
+
+            int crystalCount = buffer.getInt();
+            for (int i = 0; i < crystalCount; ++i) {
+                _crystals.add(readUuid(buffer));
+            }
+            int bossCount = buffer.getInt();
+            for (int i = 0; i < bossCount; ++i) {
+                UUID uuid = readUuid(buffer);
+                _bosses.put(uuid, buffer.getDouble());
+            }
+
+            // Version 2 added the transition state; version 3 its seed.
+            if (version >= 2 && buffer.get() != 0) {
+                int stageNumber = buffer.getInt();
+                UUID crystal = readUuid(buffer);
+                int elapsedTicks = buffer.getInt();
+                long seed = (version >= 3) ? buffer.getLong() : ThreadLocalRandom.current().nextLong();
+                Location spawnLocation = null;
+                if (buffer.get() != 0) {
+                    spawnLocation = new Location(null, buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                                                 buffer.getFloat(), 0);
+                }
+                _transition = new Transition(stageNumber, crystal, elapsedTicks, seed, spawnLocation);
+            }
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not load " + file, ex);
+            _crystals.clear();
+            _bosses.clear();
+            _transition = null;
+            return false;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the stage number when the snapshot was loaded.
+     *
+     * @return the stage number when the snapshot was loaded.
+     */
+    public int getStageNumber() {
+        return _stageNumber;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the fight owner when the snapshot was loaded.
+     *
+     * @return the UUID of the fight owner, or null if none.
+     */
+    public UUID getFightOwner() {
+        return _fightOwner;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUIDs of the pillar crystals.
+     *
+     * @return an unmodifiable view of the crystal UUIDs.
+     */
+    public Set<UUID> getCrystals() {
+        return Collections.unmodifiableSet(_crystals);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a map from boss UUID to maximum health.
+     *
+     * @return an unmodifiable view of the bosses.
+     */
+    public Map<UUID, Double> getBosses() {
+        return Collections.unmodifiableMap(_bosses);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the state of the stage transition in progress.
+     *
+     * @return the transition state, or null if there is no transition.
+     */
+    public Transition getTransition() {
+        return _transition;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the state of the stage transition in progress.
+     *
+     * @param transition the transition state, or null if there is no
+     *                   transition.
+     */
+    public void setTransition(Transition transition) {
+        if (transition != null || _transition != null) {
+            _transition = transition;
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a pillar crystal.
+     *
+     * @param uuid the crystal's UUID.
+     */
+    public void addCrystal(UUID uuid) {
+        if (_crystals.add(uuid)) {
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a pillar crystal.
+     *
+     * @param uuid the crystal's UUID.
+     */
+    public void removeCrystal(UUID uuid) {
+        if (_crystals.remove(uuid)) {
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all pillar crystals.
+     */
+    public void clearCrystals() {
+        if (!_crystals.isEmpty()) {
+            _crystals.clear();
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a boss.
+     *
+     * @param uuid      the boss's UUID.
+     * @param maxHealth the boss's maximum health.
+     */
+    public void addBoss(UUID uuid, double maxHealth) {
+        Double oldMaxHealth = _bosses.put(uuid, maxHealth);
+        if (oldMaxHealth == null || oldMaxHealth != maxHealth) {
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a boss.
+     *
+     * @param uuid the boss's UUID.
+     */
+    public void removeBoss(UUID uuid) {
+        if (_bosses.remove(uuid) != null) {
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all bosses.
+     */
+    public void clearBosses() {
+        if (!_bosses.isEmpty()) {
+            _bosses.clear();
+            markDirty();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that the snapshot has changed and schedule a write on the next
+     * tick, unless one is already scheduled.
+     *
+     * While the plugin is disabled, tasks can't be scheduled; call
+     * {@link #flush()} instead.
+     */
+    public void markDirty() {
+        _dirty = true;
+        if (!_writeScheduled && DragonFight.PLUGIN.isEnabled()) {
+            _writeScheduled = true;
+            Bukkit.getScheduler().runTask(DragonFight.PLUGIN, () -> {
+                _writeScheduled = false;
+                if (_dirty) {
+                    _pending.set(encode());
+                    _dirty = false;
+                    Bukkit.getScheduler().runTaskAsynchronously(DragonFight.PLUGIN, () -> writePending());
+                }
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * If there are unwritten changes, write the snapshot immediately on the
+     * calling thread.
+     *
+     * This method is used when the plugin is disabled.
+     */
+    public void flush() {
+        if (_dirty) {
+            _pending.set(encode());
+            _dirty = false;
+        }
+        writePending();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the current contents, with the current stage number and fight
+     * owner.
+     *
+     * @return the encoded snapshot.
+     */
+    protected byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + UUID_SIZE +
+                                                4 + _crystals.size() * UUID_SIZE +
+                                                4 + _bosses.size() * (UUID_SIZE + 8) +
+                                                1 + TRANSITION_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putInt(DragonFight.CONFIG.STAGE_NUMBER);
+        writeUuid(buffer, DragonFight.CONFIG.FIGHT_OWNER);
+        buffer.putInt(_crystals.size());
+        for (UUID uuid : _crystals) {
+            writeUuid(buffer, uuid);
+        }
+        buffer.putInt(_bosses.size());
+        for (Map.Entry<UUID, Double> entry : _bosses.entrySet()) {
+            writeUuid(buffer, entry.getKey());
+            buffer.putDouble(entry.getValue());
+        }
+        if (_transition == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putInt(_transition._stageNumber);
+            writeUuid(buffer, _transition._crystal);
+            buffer.putInt(_transition._elapsedTicks);
+            buffer.putLong(_transition._seed);
+            buffer.put((byte) (_transition._hasSpawnLocation ? 1 : 0));
+            buffer.putDouble(_transition._x).putDouble(_transition._y).putDouble(_transition._z);
+            buffer.putFloat(_transition._yaw);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the most recently encoded snapshot, if it has not yet been
+     * written.
+     *
+     * Writes are serialised, and an older snapshot is never written after a
+     * newer one, since each write takes the latest pending snapshot.
+     */
+    protected void writePending() {
+        synchronized (_pending) {
+            byte[] contents = _pending.getAndSet(null);
+            if (contents == null) {
+                return;
+            }
+
+            Path path = getFile().toPath();
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(path.getParent());
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                            StandardOpenOption.WRITE,
+                                                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(contents);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                try {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException ex) {
+                DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not save " + path, ex);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the snapshot file.
+     *
+     * @return the snapshot file.
+     */
+    protected File getFile() {
+        return new File(DragonFight.PLUGIN.getDataFolder(), _fileName);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a UUID, or zeroes for null.
+     *
+     * @param buffer the buffer.
+     * @param uuid   the UUID, or null.
+     */
+    protected static void writeUuid(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong((uuid == null) ? 0 : uuid.getMostSignificantBits());
+        buffer.putLong((uuid == null) ? 0 : uuid.getLeastSignificantBits());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a UUID written by {@link #writeUuid(ByteBuffer, UUID)}.
+     *
+     * @param buffer the buffer.
+     * @return the UUID, or null if it was written as null.
+     */
+    protected static UUID readUuid(ByteBuffer buffer) {
+        long msb = buffer.getLong();
+        long lsb = buffer.getLong();
+        return (msb == 0 && lsb == 0) ? null : new UUID(msb, lsb);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Magic number at the start of the file: "DFSN".
+     */
+    private static final int MAGIC = 0x4446534E;
+
+    /**
+     * File format version. Version 2 added the transition state and version 3
+     * the transition's random seed.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Size of the header (magic and version) in bytes.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Size of an encoded UUID in bytes.
+     */
+    private static final int UUID_SIZE = 16;
+
+    /**
+     * Maximum size of the encoded transition state in bytes.
+     */
+    private static final int TRANSITION_SIZE = 4 + UUID_SIZE + 4 + 8 + 1 + 3 * 8 + 4;
+
+    /**
+     * The name of the file in the plugin's data folder.
+     */
+    protected final String _fileName;
+
+    /**
+     * UUIDs of the pillar crystals.
+     */
+    protected LinkedHashSet<UUID> _crystals = new LinkedHashSet<>();
+
+    /**
+     * Map from boss UUID to maximum health.
+     */
+    protected LinkedHashMap<UUID, Double> _bosses = new LinkedHashMap<>();
+
+    /**
+     * The stage number in the loaded snapshot.
+     */
+    protected int _stageNumber;
+
+    /**
+     * The fight owner in the loaded snapshot, or null if none.
+     */
+    protected UUID _fightOwner;
+
+    /**
+     * The state of the stage transition in progress, or null if none.
+     */
+    protected Transition _transition;
+
+    /**
+     * True if the contents have changed since they were last encoded.
+     */
+    protected boolean _dirty;
+
+    /**
+     * True if encoding has been scheduled for the next tick.
+     */
+    protected boolean _writeScheduled;
+
+    /**
+     * The most recently encoded snapshot, or null if it has been written.
+     */
+    protected final AtomicReference<byte[]> _pending = new AtomicReference<>();
+} // class FightSnapshot
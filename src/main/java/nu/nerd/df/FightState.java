@@ -1,13 +1,16 @@
 package nu.nerd.df;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
 import org.bukkit.Bukkit;
@@ -26,8 +29,6 @@ import org.bukkit.boss.BossBar;
 import org.bukkit.boss.DragonBattle;
 import org.bukkit.boss.DragonBattle.RespawnPhase;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.InvalidConfigurationException;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Creature;
 import org.bukkit.entity.EnderCrystal;
 import org.bukkit.entity.EnderDragon;
@@ -40,6 +41,9 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.CreatureSpawnEvent;
 import org.bukkit.event.entity.CreatureSpawnEvent.SpawnReason;
 import org.bukkit.event.entity.EnderDragonChangePhaseEvent;
@@ -48,18 +52,17 @@ import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.EntityPortalEvent;
+import org.bukkit.event.entity.EntityRegainHealthEvent;
 import org.bukkit.event.entity.EntitySpawnEvent;
 import org.bukkit.event.entity.ProjectileLaunchEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.metadata.FixedMetadataValue;
-import org.bukkit.metadata.MetadataValue;
-import org.bukkit.potion.PotionEffect;
-import org.bukkit.potion.PotionEffectType;
 import org.bukkit.projectiles.ProjectileSource;
+import org.bukkit.scheduler.BukkitTask;
 
 import nu.nerd.beastmaster.BeastMaster;
 import nu.nerd.beastmaster.Drop;
@@ -67,11 +70,7 @@ import nu.nerd.beastmaster.DropResults;
 import nu.nerd.beastmaster.DropSet;
 import nu.nerd.beastmaster.DropType;
 import nu.nerd.beastmaster.Item;
-import nu.nerd.beastmaster.PotionSet;
-import nu.nerd.beastmaster.ProbablePotion;
 import nu.nerd.beastmaster.Util;
-import nu.nerd.beastmaster.mobs.DataType;
-import nu.nerd.beastmaster.mobs.MobProperty;
 import nu.nerd.beastmaster.mobs.MobType;
 
 // ----------------------------------------------------------------------------
@@ -131,23 +130,54 @@ public class FightState implements Listener {
      * Actions performed on plugin enable.
      */
     public void onEnable() {
-        defineBeastMasterObjects();
-
-        // Force load chunks in the end, then wait a few seconds and hope that
-        // the entities are loaded. There is no way to force-load entities.
-        preLoadEndChunks();
-        Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN, () -> {
-            recoverFightState();
-            reconfigureDragonBossBar();
-        }, 100);
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(DragonFight.PLUGIN, _tracker, TrackerTask.PERIOD_TICKS, TrackerTask.PERIOD_TICKS);
-
-        // Every 30 seconds remove extra dragons. YOLO.
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(DragonFight.PLUGIN, () -> {
-            // Probably not a good idea to exclude stage 0, since the spawn
-            // event is not fired for surplus dragons. :/
-            removeSurplusDragons();
-        }, 600, 600);
+        // Apply missing BeastMaster defaults. Saving is deferred until after
+        // startup, and skipped if nothing changed.
+        long start = System.nanoTime();
+        List<String> appliedDefaults = new BeastMasterDefaults().apply();
+        DragonFight.STARTUP.record("beastmaster-defaults", start);
+        if (!appliedDefaults.isEmpty()) {
+            log("Applied BeastMaster defaults: " + String.join(", ", appliedDefaults));
+            BeastMasterDefaults.scheduleSave();
+        }
+
+        // Find out which crystals and bosses to expect from the snapshot and
+        // adopt those that are already loaded. The rest are adopted by UUID
+        // as their entities load.
+        start = System.nanoTime();
+        _recovering = true;
+        _snapshotLoaded = _snapshot.load();
+        if (_snapshotLoaded) {
+            _missingCrystals.addAll(_snapshot.getCrystals());
+            _missingBosses.putAll(_snapshot.getBosses());
+            List<UUID> expected = new ArrayList<>(_missingCrystals);
+            expected.addAll(_missingBosses.keySet());
+            for (UUID uuid : expected) {
+                Entity entity = Bukkit.getEntity(uuid);
+                if (entity != null) {
+                    recoverExpectedEntity(entity);
+                }
+            }
+        }
+        DragonFight.STARTUP.record("snapshot", start);
+
+        // Load chunks in the end. Recovery completes as soon as the expected
+        // entities have loaded, or after a timeout if some never do.
+        DragonFight.STARTUP.time("chunk-load", () -> preLoadEndChunks());
+        _entityWaitStart = System.nanoTime();
+        _recoveryTimeoutTask = _pluginTasks.runTaskLater(() -> {
+            log("Timed out waiting for fight entities to load.");
+            completeRecovery();
+        }, RECOVERY_TIMEOUT_TICKS);
+        _pluginTasks.runTask(() -> checkRecoveryComplete());
+        _tracker.wake();
+
+        // Surplus dragons are normally detected as they are added to the
+        // world, but the spawn event is not always fired for them. :/
+        // Occasionally reconcile the dragon census with the world.
+        long auditTicks = 20L * DragonFight.CONFIG.DRAGON_AUDIT_PERIOD_SECONDS;
+        if (auditTicks > 0) {
+            _pluginTasks.runTaskTimer(() -> auditDragons(), auditTicks, auditTicks);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -155,16 +185,22 @@ public class FightState implements Listener {
      * Actions performed on plugin disable.
      */
     public void onDisable() {
-        Bukkit.getScheduler().cancelTasks(DragonFight.PLUGIN);
+        // A transition's progress is saved below, so it is stopped but kept.
+        _transitionTasks.cancelAll();
+        _fightTasks.cancelAll();
+        _pluginTasks.cancelAll();
 
         // If 4 crystals are placed and there is a restart, I'm not sure if
         // the dragon will respawn after the restart. Log the situation so an
         // admin refund is possible.
-        List<Entity> spawningCrystals = getDragonSpawnCrystals();
-        if (spawningCrystals.size() == 4) {
+        if (_spawningCrystals.count() == 4) {
             log("The server is restarting during dragon spawn (4 crystals placed).");
             cmdStop(Bukkit.getConsoleSender());
         }
+
+        // Record exactly how far any stage transition got.
+        saveTransitionState();
+        _snapshot.flush();
     }
 
     // ------------------------------------------------------------------------
@@ -231,7 +267,11 @@ public class FightState implements Listener {
         if (stageNumber < 0 || stageNumber > 11) {
             throw new IllegalArgumentException("invalid stage number: " + stageNumber);
         }
-        DragonFight.CONFIG.STAGE_NUMBER = stageNumber;
+        DragonFight.CONFIG.setStageNumber(stageNumber);
+        updateChunkResidency();
+        if (stageNumber != 0) {
+            _tracker.wake();
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -258,7 +298,8 @@ public class FightState implements Listener {
         if (stageNumber < 0 || stageNumber > 11) {
             throw new IllegalArgumentException("invalid stage number: " + stageNumber);
         }
-        DragonFight.CONFIG.NEW_STAGE_NUMBER = stageNumber;
+        DragonFight.CONFIG.setNewStageNumber(stageNumber);
+        updateChunkResidency();
     }
 
     // ------------------------------------------------------------------------
@@ -273,10 +314,31 @@ public class FightState implements Listener {
     public void cmdInfo(CommandSender sender) {
         sender.sendMessage(ChatColor.DARK_PURPLE + "The current fight stage is " +
                            ChatColor.LIGHT_PURPLE + getStageNumber() + ChatColor.DARK_PURPLE + ".");
+        sender.sendMessage(ChatColor.DARK_PURPLE + "Chunks held loaded: " +
+                           ChatColor.LIGHT_PURPLE + _chunkResidency.size() +
+                           ChatColor.DARK_PURPLE + " (" + _chunkResidency.getPhase() + ").");
         if (isStageNumberChanging()) {
             sender.sendMessage(ChatColor.DARK_PURPLE + "The fight stage is changing to " +
                                ChatColor.LIGHT_PURPLE + DragonFight.CONFIG.NEW_STAGE_NUMBER + ChatColor.DARK_PURPLE + ".");
         }
+        if (_transition != null) {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "Transition: " + ChatColor.LIGHT_PURPLE + _transition + ChatColor.DARK_PURPLE + ".");
+        }
+        sender.sendMessage(ChatColor.DARK_PURPLE + "Pending tasks: " +
+                           ChatColor.LIGHT_PURPLE + _pluginTasks.size() +
+                           ChatColor.DARK_PURPLE + " plugin, " +
+                           ChatColor.LIGHT_PURPLE + _fightTasks.size() +
+                           ChatColor.DARK_PURPLE + " fight, " +
+                           ChatColor.LIGHT_PURPLE + _transitionTasks.size() +
+                           ChatColor.DARK_PURPLE + " transition; deferred actions: " +
+                           ChatColor.LIGHT_PURPLE + _deferred.size() +
+                           ChatColor.DARK_PURPLE + ".");
+        if (_tracker.isDormant()) {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "The boss tracker is dormant.");
+        } else {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "The boss tracker is checking " +
+                               ChatColor.LIGHT_PURPLE + _tracker.size() + ChatColor.DARK_PURPLE + " bosses.");
+        }
         if (!isFightHappening()) {
             return;
         }
@@ -315,6 +377,22 @@ public class FightState implements Listener {
             });
         }
 
+        if (!_missingCrystals.isEmpty() || !_missingBosses.isEmpty()) {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "Not yet loaded since restart: " +
+                               ChatColor.LIGHT_PURPLE + _missingCrystals.size() +
+                               ChatColor.DARK_PURPLE + " crystals, " +
+                               ChatColor.LIGHT_PURPLE + _missingBosses.size() +
+                               ChatColor.DARK_PURPLE + " bosses.");
+        }
+
+        sender.sendMessage(ChatColor.DARK_PURPLE + "Tracked fight entities: " +
+                           ChatColor.LIGHT_PURPLE + _entities.count(FightEntities.Role.BOSS) +
+                           ChatColor.DARK_PURPLE + " bosses, " +
+                           ChatColor.LIGHT_PURPLE + _entities.count(FightEntities.Role.SUPPORT) +
+                           ChatColor.DARK_PURPLE + " support mobs, " +
+                           ChatColor.LIGHT_PURPLE + _entities.count(FightEntities.Role.PROJECTILE) +
+                           ChatColor.DARK_PURPLE + " projectiles.");
+
         DragonBattle battle = DragonUtil.getFightWorld().getEnderDragonBattle();
         EnderDragon dragon = battle.getEnderDragon();
         if (dragon != null) {
@@ -337,6 +415,8 @@ public class FightState implements Listener {
      */
     public void cmdStop(CommandSender sender) {
         sender.sendMessage(ChatColor.DARK_PURPLE + "Stopping the fight.");
+        cancelTransition();
+        endFightTasks();
         World fightWorld = DragonUtil.getFightWorld();
         DragonBattle battle = fightWorld.getEnderDragonBattle();
         EnderDragon dragon = battle.getEnderDragon();
@@ -350,9 +430,10 @@ public class FightState implements Listener {
 
         // Don't assume that the state is consistent, i.e. that spawning
         // cystals are mutually exclusive with the dragon.
-        List<Entity> spawningCrystals = getDragonSpawnCrystals();
+        List<EnderCrystal> spawningCrystals = _spawningCrystals.getCrystals();
         if (!spawningCrystals.isEmpty()) {
             spawningCrystals.forEach(e -> e.remove());
+            _spawningCrystals.clear();
             sender.sendMessage(ChatColor.DARK_PURPLE + "Removed spawning crystals: " +
                                ChatColor.LIGHT_PURPLE + spawningCrystals.size());
         }
@@ -362,19 +443,21 @@ public class FightState implements Listener {
         }
         sender.sendMessage(ChatColor.DARK_PURPLE + "Removed pillar crystals: " + ChatColor.LIGHT_PURPLE + _crystals.size());
         _crystals.clear();
+        _snapshot.clearCrystals();
 
         cleanUpMobsAndProjectiles(sender);
 
         // Immediately hide the boss bar, rather than waiting for update.
         if (_bossBar != null) {
             _bossBar.setVisible(false);
+            _bossBarViewers.clear();
         }
 
         // Clear stage numbers prior to config save.
         immediatelyChangeStageNumber(0);
 
         // Nobody owns the drops, even if a dragon randomly spawns for funsies.
-        DragonFight.CONFIG.FIGHT_OWNER = null;
+        DragonFight.CONFIG.setFightOwner(null);
         DragonFight.CONFIG.save();
     }
 
@@ -401,6 +484,7 @@ public class FightState implements Listener {
             return;
         }
 
+        cancelTransition();
         cleanUpMobsAndProjectiles(sender);
         despawnPillarCrystals(1);
 
@@ -452,6 +536,7 @@ public class FightState implements Listener {
             return;
         }
 
+        cancelTransition();
         cleanUpMobsAndProjectiles(sender);
 
         int skippedStages = stageNumber - getStageNumber();
@@ -485,32 +570,83 @@ public class FightState implements Listener {
     /**
      * Clean up mobs and projectiles and message the command sender with tallies
      * of entities removed.
+     *
+     * Only the entities in {@link #_entities} are visited, rather than every
+     * entity in the fight world.
      */
     protected void cleanUpMobsAndProjectiles(CommandSender sender) {
-        int projectileCount = 0;
-        int bossCount = 0;
-        int supportCount = 0;
-        for (Entity entity : DragonUtil.getFightWorld().getEntities()) {
-            if (entity.isValid()) {
-                if (entity instanceof Projectile && DragonUtil.hasTagOrGroup(entity, ENTITY_TAG)) {
-                    entity.remove();
-                    ++projectileCount;
-                } else if (DragonUtil.hasTagOrGroup(entity, BOSS_TAG)) {
-                    entity.remove();
-                    ++bossCount;
-                } else if (DragonUtil.hasTagOrGroup(entity, SUPPORT_TAG)) {
-                    entity.remove();
-                    ++supportCount;
-                }
-            }
-        }
+        int projectileCount = _entities.removeAll(FightEntities.Role.PROJECTILE);
+        int bossCount = _entities.removeAll(FightEntities.Role.BOSS);
+        int supportCount = _entities.removeAll(FightEntities.Role.SUPPORT);
 
         _bosses.clear();
+        _bossSightings.clear();
+        _bossHealth.clear();
+        _snapshot.clearBosses();
         sender.sendMessage(ChatColor.DARK_PURPLE + "Removed boss mobs: " + ChatColor.LIGHT_PURPLE + bossCount);
         sender.sendMessage(ChatColor.DARK_PURPLE + "Removed support mobs: " + ChatColor.LIGHT_PURPLE + supportCount);
         sender.sendMessage(ChatColor.DARK_PURPLE + "Removed projectiles: " + ChatColor.LIGHT_PURPLE + projectileCount);
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * If the specified entity is a boss, support mob or projectile belonging to
+     * the fight, add it to {@link #_entities}, and to {@link #_bosses} in the
+     * case of a boss.
+     *
+     * @param entity the entity, which may or may not be part of the fight.
+     */
+    protected void trackFightEntity(Entity entity) {
+        if (entity instanceof Projectile) {
+            if (DragonFight.ROLES.has(entity, EntityRoles.ENTITY)) {
+                _entities.add(entity, FightEntities.Role.PROJECTILE);
+            }
+        } else if (entity instanceof LivingEntity) {
+            if (DragonFight.ROLES.has(entity, EntityRoles.BOSS)) {
+                LivingEntity boss = (LivingEntity) entity;
+                if (_bosses.add(boss)) {
+                    _bossHealth.add(boss);
+                    _snapshot.addBoss(boss.getUniqueId(), boss.getMaxHealth());
+                    _tracker.track(boss);
+                }
+                _entities.add(entity, FightEntities.Role.BOSS);
+            } else if (DragonFight.ROLES.has(entity, EntityRoles.SUPPORT)) {
+                _entities.add(entity, FightEntities.Role.SUPPORT);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the chunks needed in the current phase of the fight, releasing
+     * any others.
+     *
+     * While the fight state is being recovered, the whole tracked area is
+     * loaded.
+     */
+    public void updateChunkResidency() {
+        ChunkResidency.Phase phase;
+        double radius;
+        if (_recovering) {
+            phase = ChunkResidency.Phase.RECOVERY;
+            radius = TRACKED_RADIUS;
+        } else if (getStageNumber() == 11 && !isStageNumberChanging()) {
+            phase = ChunkResidency.Phase.DRAGON;
+            radius = DragonFight.CONFIG.DRAGON_CHUNK_RADIUS;
+        } else if (getStageNumber() > 0 || getNewStageNumber() > 0) {
+            phase = ChunkResidency.Phase.STAGE;
+            radius = DragonFight.CONFIG.STAGE_CHUNK_RADIUS;
+        } else if (_spawningCrystals.count() == 4 ||
+                   DragonUtil.getFightWorld().getEnderDragonBattle().getRespawnPhase() != RespawnPhase.NONE) {
+            phase = ChunkResidency.Phase.SUMMONING;
+            radius = DragonFight.CONFIG.SUMMONING_CHUNK_RADIUS;
+        } else {
+            phase = ChunkResidency.Phase.IDLE;
+            radius = DragonFight.CONFIG.IDLE_CHUNK_RADIUS;
+        }
+        _chunkResidency.hold(DragonUtil.getFightWorld(), phase, radius);
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Load relevant end chunks when the plugin loads.
@@ -521,8 +657,18 @@ public class FightState implements Listener {
      * synchronously.
      *
      * On startup, we need to add all the end crystals to the {@link #_crystals}
-     * array. So this method starts the ball rolling on loading them and we
-     * check for them a few seconds later in {@link recoverFightState()}.
+     * array. So this method starts the ball rolling on loading them by holding
+     * the tracked area in the RECOVERY phase of {@link #_chunkResidency}, and
+     * records the chunks whose entities have not yet loaded. As their entities
+     * load, {@link #onEntitiesLoad(EntitiesLoadEvent)} adopts them and checks
+     * whether recovery is complete. The chunks needed by the recovered phase
+     * of the fight are then held instead.
+     *
+     * Older versions of this plugin permanently force-loaded the tracked area.
+     * That is undone here, once, when upgrading from a version that did not
+     * write a fight snapshot. Chunks force-loaded by other means (e.g. the
+     * /forceload command) share the same flag, so they are left alone
+     * thereafter.
      *
      * References:
      * <ul>
@@ -533,15 +679,92 @@ public class FightState implements Listener {
      */
     protected void preLoadEndChunks() {
         World fightWorld = DragonUtil.getFightWorld();
-
-        // Preload chunks to ensure we find the crystals.
         int chunkRange = (int) Math.ceil(TRACKED_RADIUS / 16);
-        for (int x = -chunkRange; x <= chunkRange; ++x) {
-            for (int z = -chunkRange; z <= chunkRange; ++z) {
-                Chunk chunk = fightWorld.getChunkAt(x, z);
-                chunk.addPluginChunkTicket(DragonFight.PLUGIN);
-                chunk.setForceLoaded(true);
-                chunk.load();
+
+        if (!_snapshot.exists()) {
+            int unforced = 0;
+            for (Chunk chunk : fightWorld.getForceLoadedChunks()) {
+                if (Math.abs(chunk.getX()) <= chunkRange && Math.abs(chunk.getZ()) <= chunkRange) {
+                    chunk.setForceLoaded(false);
+                    ++unforced;
+                }
+            }
+            if (unforced > 0) {
+                log("Migration: stopped force-loading " + unforced +
+                    " chunks around the arena that older versions force-loaded.");
+            }
+        }
+
+        // Ticketed chunks load immediately, but their entities load later.
+        updateChunkResidency();
+        for (long key : _chunkResidency.getChunks()) {
+            if (!fightWorld.getChunkAt(DragonUtil.getChunkX(key), DragonUtil.getChunkZ(key)).isEntitiesLoaded()) {
+                _recoveryPendingChunks.add(key);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * If the fight state is being recovered on startup and all of the entities
+     * needed to recover it have loaded, complete the recovery.
+     *
+     * When there is a fight snapshot, the expected crystals and bosses are
+     * needed. Otherwise, the entities of all chunks in the tracked area are
+     * needed, since they must be scanned.
+     */
+    protected void checkRecoveryComplete() {
+        if (!_recovering) {
+            return;
+        }
+
+        boolean loaded = _snapshotLoaded ? _missingCrystals.isEmpty() && _missingBosses.isEmpty()
+                                         : _recoveryPendingChunks.isEmpty();
+        if (loaded) {
+            completeRecovery();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recover the fight state from the entities that have loaded, and release
+     * the chunk tickets that are no longer needed.
+     *
+     * This method is called once, either when all needed entities have loaded
+     * or when the recovery times out.
+     */
+    protected void completeRecovery() {
+        if (!_recovering) {
+            return;
+        }
+        _recovering = false;
+        _recoveryPendingChunks.clear();
+        if (_recoveryTimeoutTask != null) {
+            _pluginTasks.cancel(_recoveryTimeoutTask);
+            _recoveryTimeoutTask = null;
+        }
+
+        DragonFight.STARTUP.record("entity-wait", _entityWaitStart);
+        DragonFight.STARTUP.time("recovery", () -> {
+            recoverFightState();
+            reconfigureDragonBossBar();
+            updateChunkResidency();
+        });
+        DragonFight.STARTUP.ready();
+
+        // Build the boss spawn sites before a boss needs one.
+        if (isFightHappening()) {
+            _spawnSites.refreshAsync(DragonUtil.getFightWorld());
+        }
+
+        // If a boss died during recovery and no others were recovered, the
+        // stage is over.
+        if (_bossDeathDeferred) {
+            _bossDeathDeferred = false;
+            if (isFightHappening() && !isStageNumberChanging() &&
+                _bosses.isEmpty() && _missingBosses.isEmpty()) {
+                log("The last boss died during recovery. Starting the next stage.");
+                animateNextStage();
             }
         }
     }
@@ -567,29 +790,65 @@ public class FightState implements Listener {
             log("No dragon exists.");
         }
 
-        // Preload chunks to ensure we find the crystals.
-        int chunkRange = (int) Math.ceil(TRACKED_RADIUS / 16);
-        for (int x = -chunkRange; x <= chunkRange; ++x) {
-            for (int z = -chunkRange; z <= chunkRange; ++z) {
-                Chunk chunk = fightWorld.getChunkAt(x, z);
+        // Take the initial dragon census.
+        _dragonCensus.audit(fightWorld);
+        log("Discovered dragons: " + _dragonCensus.size());
+
+        if (_snapshotLoaded) {
+            // Crystals and bosses were adopted by UUID as they loaded. Only
+            // crystals placed on the portal frame need to be found, in the
+            // chunks around the origin.
+            for (int x = -1; x <= 0; ++x) {
+                for (int z = -1; z <= 0; ++z) {
+                    for (Entity entity : fightWorld.getChunkAt(x, z).getEntities()) {
+                        if (entity instanceof EnderCrystal) {
+                            recoverSpawningCrystal((EnderCrystal) entity);
+                        }
+                    }
+                }
+            }
+            log("Recovered crystals: " + (_snapshot.getCrystals().size() - _missingCrystals.size()) +
+                " of " + _snapshot.getCrystals().size());
+            log("Recovered bosses: " + (_snapshot.getBosses().size() - _missingBosses.size()) +
+                " of " + _snapshot.getBosses().size());
+            for (UUID uuid : _missingCrystals) {
+                log("Missing crystal: " + uuid);
+            }
+            for (Map.Entry<UUID, Double> entry : _missingBosses.entrySet()) {
+                log("Missing boss: " + entry.getKey() + " (max health " + entry.getValue() + ")");
+            }
+            if (_snapshot.getStageNumber() != getStageNumber()) {
+                log("The fight snapshot is from stage " + _snapshot.getStageNumber() +
+                    " but the fight is in stage " + getStageNumber() + ".");
+            }
+
+        } else {
+            // No snapshot (first run of this version). Scan the tracked area,
+            // which is still held for recovery.
+            for (long key : new ArrayList<>(_chunkResidency.getChunks())) {
+                Chunk chunk = fightWorld.getChunkAt(DragonUtil.getChunkX(key), DragonUtil.getChunkZ(key));
                 for (Entity entity : chunk.getEntities()) {
-                    if (entity instanceof EnderCrystal && entity.getScoreboardTags().contains(PILLAR_CRYSTAL_TAG)) {
+                    if (entity instanceof EnderCrystal && DragonFight.ROLES.has(entity, EntityRoles.PILLAR_CRYSTAL)) {
                         _crystals.add((EnderCrystal) entity);
-                        // In case the restart happened immediately after
-                        // the crystal spawned.
+                        _snapshot.addCrystal(entity.getUniqueId());
+                        // In case the restart happened immediately after the
+                        // crystal spawned.
                         entity.setInvulnerable(true);
 
-                    } else if (entity instanceof LivingEntity) {
-                        // Find bosses within the discoverable range.
-                        if (DragonUtil.hasTagOrGroup(entity, BOSS_TAG)) {
-                            _bosses.add((LivingEntity) entity);
-                        }
+                    } else if (entity instanceof EnderCrystal) {
+                        recoverSpawningCrystal((EnderCrystal) entity);
+                    } else {
+                        // Find bosses, support mobs and projectiles within the
+                        // discoverable range.
+                        trackFightEntity(entity);
                     }
                 }
             }
+            _snapshot.markDirty();
+            log("Discovered bosses: " + _bosses.size());
+            log("Discovered crystals: " + _crystals.size());
         }
-        log("Discovered bosses: " + _bosses.size());
-        log("Discovered crystals: " + _crystals.size());
+        log("Discovered dragon-spawning crystals: " + _spawningCrystals.count());
 
         if (getStageNumber() < 0 || getStageNumber() > 11) {
             log("Stage number " + getStageNumber() + " is out of bounds. Setting to 0.");
@@ -597,163 +856,86 @@ public class FightState implements Listener {
         }
 
         log("Current stage: " + getStageNumber());
+        FightSnapshot.Transition transition = _snapshot.getTransition();
         if (isStageNumberChanging()) {
             log("Transitioning from stage " + getStageNumber() + " to stage " + getNewStageNumber());
+            EnderCrystal transitionCrystal = getTransitionCrystal(transition);
             if (getNewStageNumber() != getStageNumber() + 1) {
                 log("Too many skipped stages! Going direct to " + getNewStageNumber() + ".");
+                _snapshot.setTransition(null);
                 startStage(null, getNewStageNumber(), getNewStageNumber() == 11 ? null : getBossSpawnLocation());
+            } else if (transitionCrystal != null) {
+                // Pick up the animation where it stopped.
+                log("Resuming the transition at tick " + transition.getElapsedTicks() +
+                    (transition.getSpawnLocation(fightWorld) == null ? "."
+                                                                     : " with boss spawn location " +
+                                                                       Util.formatLocation(transition.getSpawnLocation(fightWorld)) + "."));
+                startTransition(transitionCrystal, transition.getElapsedTicks(), transition.getSeed(),
+                                transition.getSpawnLocation(fightWorld));
             } else {
                 // Normal path... show boss spawn animations.
                 animateNextStage();
             }
+        } else if (transition != null) {
+            log("Discarding the saved transition to stage " + transition.getStageNumber() + ".");
+            _snapshot.setTransition(null);
         }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Create default definitions for BeastMaster objects.
+     * Return the pillar crystal being replaced by a saved stage transition, if
+     * the transition can be resumed.
+     *
+     * @param transition the saved transition state, or null if none.
+     * @return the recovered crystal, or null if the transition is absent, is
+     *         to a different stage or its crystal was not recovered.
      */
-    protected void defineBeastMasterObjects() {
-        boolean configurationChanged = false;
-
-        // Default items.
-        if (BeastMaster.ITEMS.getItem("df-elytra") == null) {
-            BeastMaster.ITEMS.addItem("df-elytra", new ItemStack(Material.ELYTRA));
-            configurationChanged = true;
+    protected EnderCrystal getTransitionCrystal(FightSnapshot.Transition transition) {
+        if (transition == null || transition.getStageNumber() != getNewStageNumber()) {
+            return null;
         }
-        if (BeastMaster.ITEMS.getItem("df-dragon-head") == null) {
-            BeastMaster.ITEMS.addItem("df-dragon-head", new ItemStack(Material.DRAGON_HEAD));
-            configurationChanged = true;
-        }
-        if (BeastMaster.ITEMS.getItem("df-placeholder-head") == null) {
-            String skullData = "item:\n" +
-                               "  ==: org.bukkit.inventory.ItemStack\n" +
-                               "  v: 2230\n" +
-                               "  type: PLAYER_HEAD\n" +
-                               "  meta:\n" +
-                               "    ==: ItemMeta\n" +
-                               "    meta-type: SKULL\n" +
-                               "    display-name: 'TODO: add texture'\n" +
-                               "    internal: H4sIAAAAAAAAAE2KzW6CQBhFvzZpQkkfo1uSAQRk0YUpRIfIUJHf2Y0wRKaDNQhWfK4+YOmui5vcc89VAVR42X+OUn70X00ruQrq3M68H1p+eQZl4Ldh7PlFBYAHBZ4yJkcOP3wKEC2OqC4CWU3YnjnZIxlhcXbwKZsO79jG3ew3K3s7uf++1sByS5ZmcKSn3XjoMrQ1Y8k3sV516ZUktYgSH4WJr0dedS/vuxtNQoMI2c6R1MPfYecbVKwmIlKTisqg63Si69IIRSzLPF0QLxPE+9tSneSZCNvAbQr0BqDAI67hlTmmzh2r0pyGWdqC1ba2rF1XQ1W9ZDZzddsxAH4BxCeVXBwBAAA=\n";
-            ItemStack dfPlaceholderHead = null;
-            try {
-                YamlConfiguration config = new YamlConfiguration();
-                config.loadFromString(skullData);
-                dfPlaceholderHead = config.getItemStack("item");
-            } catch (InvalidConfigurationException ex) {
-                DragonFight.PLUGIN.getLogger().warning("Unable to load df-placeholder-head.");
-            }
-            if (dfPlaceholderHead != null) {
-                BeastMaster.ITEMS.addItem("df-placeholder-head", dfPlaceholderHead);
-            }
-            configurationChanged = true;
-        }
-
-        // Default potion sets.
-        if (BeastMaster.POTIONS.getPotionSet("df-boss-potions") == null) {
-            PotionSet dfBossPotions = new PotionSet("df-boss-potions");
-            PotionEffect potionEffect = new PotionEffect(PotionEffectType.FIRE_RESISTANCE, Integer.MAX_VALUE, 0, false, false);
-            dfBossPotions.addPotion(new ProbablePotion(potionEffect, 1.0));
-            BeastMaster.POTIONS.addPotionSet(dfBossPotions);
-            configurationChanged = true;
-        }
-
-        // EnderDragon friend groups.
-        MobType dragonMobType = BeastMaster.MOBS.getMobType(EntityType.ENDER_DRAGON);
-        MobProperty dragonFriendGroups = dragonMobType.getProperty("friend-groups");
-        @SuppressWarnings("unchecked")
-        Set<String> dragonFriendGroupsValue = (Set<String>) dragonFriendGroups.getValue();
-        if (dragonFriendGroupsValue == null) {
-            dragonMobType.getProperty("friend-groups").setValue(DataType.TAG_SET.deserialise("df-entity"));
-            configurationChanged = true;
-        } else if (!dragonFriendGroupsValue.contains("df-entity")) {
-            dragonFriendGroupsValue.add("df-entity");
-            configurationChanged = true;
-        }
-
-        // Default mob types.
-        if (BeastMaster.MOBS.getMobType("df-support") == null) {
-            MobType dfSupport = new MobType("df-support", "skeleton");
-            dfSupport.getProperty("show-name-plate").setValue(true);
-            dfSupport.getProperty("pick-up-percent").setValue(0.0);
-            dfSupport.getProperty("helmet-drop-percent").setValue(0.0);
-            dfSupport.getProperty("chest-plate-drop-percent").setValue(0.0);
-            dfSupport.getProperty("leggings-drop-percent").setValue(0.0);
-            dfSupport.getProperty("boots-drop-percent").setValue(0.0);
-            dfSupport.getProperty("main-hand-drop-percent").setValue(0.0);
-            dfSupport.getProperty("drops").setValue("df-no-drops");
-            dfSupport.getProperty("can-despawn").setValue(false);
-            dfSupport.getProperty("groups").setValue(DataType.TAG_SET.deserialise("df-entity,df-support"));
-            dfSupport.getProperty("friend-groups").setValue(DataType.TAG_SET.deserialise("df-entity"));
-            BeastMaster.MOBS.addMobType(dfSupport);
-            configurationChanged = true;
-        }
-        if (BeastMaster.MOBS.getMobType("df-boss") == null) {
-            MobType dfBoss = new MobType("df-boss", "df-support");
-            dfBoss.getProperty("potion-buffs").setValue("df-boss-potions");
-            dfBoss.getProperty("health").setValue(300.0);
-            dfBoss.getProperty("groups").setValue(DataType.TAG_SET.deserialise("df-boss,df-entity"));
-            BeastMaster.MOBS.addMobType(dfBoss);
-            configurationChanged = true;
-        }
-        if (BeastMaster.MOBS.getMobType("df-placeholder-boss") == null) {
-            MobType dfPlaceholderBoss = new MobType("df-placeholder-boss", "df-boss");
-            dfPlaceholderBoss.getProperty("entity-type").setValue(EntityType.WITHER_SKELETON);
-            dfPlaceholderBoss.getProperty("name").setValue("Test Boss Pls Ignore");
-            dfPlaceholderBoss.getProperty("helmet").setValue("df-placeholder-head");
-            dfPlaceholderBoss.getProperty("main-hand").setValue("stone_sword");
-            BeastMaster.MOBS.addMobType(dfPlaceholderBoss);
-            configurationChanged = true;
-        }
-
-        // Default loot tables.
-        if (BeastMaster.LOOTS.getDropSet("df-dragon-drops") == null) {
-            DropSet dfDragonDrops = new DropSet("df-dragon-drops");
-            dfDragonDrops.addDrop(new Drop(DropType.ITEM, "df-elytra", 1.0, 1, 1));
-            dfDragonDrops.addDrop(new Drop(DropType.ITEM, "df-dragon-head", 1.0, 1, 1));
-            BeastMaster.LOOTS.addDropSet(dfDragonDrops);
-            configurationChanged = true;
-        }
-
-        // Force df-no-drops to only drop NOTHING. Avoid saving always.
-        DropSet dfNoDrops = BeastMaster.LOOTS.getDropSet("df-no-drops");
-        if (dfNoDrops == null) {
-            dfNoDrops = new DropSet("df-no-drops");
-            dfNoDrops.addDrop(new Drop(DropType.NOTHING, "NOTHING", 1.0, 1, 1));
-            BeastMaster.LOOTS.addDropSet(dfNoDrops);
-            configurationChanged = true;
-        } else {
-            Drop nothing = dfNoDrops.getDrop("NOTHING");
-            if (nothing == null ||
-                nothing.getDropType() != DropType.NOTHING ||
-                dfNoDrops.getAllDrops().size() != 1) {
-
-                dfNoDrops = new DropSet("df-no-drops");
-                dfNoDrops.addDrop(new Drop(DropType.NOTHING, "NOTHING", 1.0, 1, 1));
-                BeastMaster.LOOTS.removeDropSet("df-no-drops");
-                BeastMaster.LOOTS.addDropSet(dfNoDrops);
-                configurationChanged = true;
+        for (EnderCrystal crystal : _crystals) {
+            if (crystal.getUniqueId().equals(transition.getCrystal())) {
+                return crystal;
             }
         }
+        log("The crystal " + transition.getCrystal() + " of the saved transition was not recovered.");
+        return null;
+    }
 
-        // Initialise stage loot tables. Stage 11 has no loot table.
-        for (int stageNumber = 1; stageNumber <= 10; ++stageNumber) {
-            // Add the stage N boss mob loot tables, if not defined.
-            String dropSetId = Stage.getDropSetId(stageNumber);
-            if (BeastMaster.LOOTS.getDropSet(dropSetId) == null) {
-                BeastMaster.LOOTS.addDropSet(new DropSet(dropSetId));
-                configurationChanged = true;
-            }
-            DropSet stageDropSet = BeastMaster.LOOTS.getDropSet(dropSetId);
-            if (stageDropSet.getAllDrops().isEmpty()) {
-                stageDropSet.addDrop(new Drop(DropType.MOB, "df-placeholder-boss", 1.0, 1, 1));
-                configurationChanged = true;
+    // ------------------------------------------------------------------------
+    /**
+     * If the specified entity is a crystal or boss expected from the fight
+     * snapshot, adopt it into the fight.
+     *
+     * @param entity the entity, which may or may not be expected.
+     */
+    protected void recoverExpectedEntity(Entity entity) {
+        UUID uuid = entity.getUniqueId();
+        if (_missingCrystals.remove(uuid)) {
+            if (entity instanceof EnderCrystal) {
+                _crystals.add((EnderCrystal) entity);
+                // In case the restart happened immediately after the crystal
+                // spawned.
+                entity.setInvulnerable(true);
             }
+        } else if (_missingBosses.remove(uuid) != null) {
+            trackFightEntity(entity);
         }
+    }
 
-        // Save if anything changed.
-        if (configurationChanged) {
-            BeastMaster.CONFIG.save();
+    // ------------------------------------------------------------------------
+    /**
+     * If the specified crystal was placed on the portal frame to summon the
+     * dragon before a restart, track it.
+     *
+     * @param crystal the crystal.
+     */
+    protected void recoverSpawningCrystal(EnderCrystal crystal) {
+        if (DragonFight.ROLES.has(crystal, EntityRoles.SPAWNING_CRYSTAL) ||
+            isDragonSpawnCrystalLocation(crystal.getLocation().getBlock().getRelative(0, -1, 0).getLocation())) {
+            _spawningCrystals.add(crystal);
         }
     }
 
@@ -767,7 +949,7 @@ public class FightState implements Listener {
         int unclaimedCount = DragonFight.CONFIG.getUnclaimedPrizes(player.getUniqueId());
         if (unclaimedCount > 0) {
             // Delay the message so it comes after the usual noise.
-            Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN, () -> {
+            _pluginTasks.runTaskLater(() -> {
                 String plural = (unclaimedCount > 1) ? "s" : "";
                 if (player.isOnline()) {
                     player.sendMessage(ChatColor.DARK_PURPLE + "You have " +
@@ -800,14 +982,24 @@ public class FightState implements Listener {
         }
 
         Entity entity = event.getEntity();
+        if (entity instanceof EnderDragon && !DragonFight.ROLES.has(entity, EntityRoles.BOSS)) {
+            countDragon((EnderDragon) entity);
+        }
 
         // Track the bosses. These might be dragons, but are not THE dragon.
-        if (DragonUtil.hasTagOrGroup(entity, BOSS_TAG)) {
+        if (DragonFight.ROLES.has(entity, EntityRoles.BOSS)) {
             LivingEntity boss = (LivingEntity) entity;
             MobType bossMobType = BeastMaster.getMobType(boss);
             log("Boss spawned: " + bossMobType.getId());
-            _bosses.add(boss);
-            DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH += boss.getMaxHealth();
+            if (_bosses.add(boss)) {
+                _bossHealth.add(boss);
+                _snapshot.addBoss(boss.getUniqueId(), boss.getMaxHealth());
+                _tracker.track(boss);
+            }
+            _entities.add(boss, FightEntities.Role.BOSS);
+            DragonFight.CONFIG.setTotalBossMaxHealth(DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH + boss.getMaxHealth());
+        } else if (DragonFight.ROLES.has(entity, EntityRoles.SUPPORT)) {
+            _entities.add(entity, FightEntities.Role.SUPPORT);
         } else {
             // Pass vanilla (DragonBattle) dragon spawns (not plugin spawns) to
             // onDragonSpawn().
@@ -839,7 +1031,9 @@ public class FightState implements Listener {
             if (isDragonSpawnCrystalLocation(loc.getBlock().getRelative(0, -1, 0).getLocation())) {
                 entity.setInvulnerable(true);
                 entity.setGlowing(true);
-                entity.getScoreboardTags().add(SPAWNING_CRYSTAL_TAG);
+                DragonFight.ROLES.addTag(entity, SPAWNING_CRYSTAL_TAG);
+                _spawningCrystals.add((EnderCrystal) entity);
+                updateChunkResidency();
             }
 
             // Register and protect crystals spawned on the pillars.
@@ -853,7 +1047,8 @@ public class FightState implements Listener {
 
     // ------------------------------------------------------------------------
     /**
-     * When loading a chunk in the fight world, track any bosses.
+     * When loading a chunk in the fight world, track any bosses, support mobs
+     * and projectiles.
      */
     @EventHandler()
     protected void onChunkLoad(ChunkLoadEvent event) {
@@ -862,15 +1057,59 @@ public class FightState implements Listener {
         }
 
         for (Entity entity : event.getChunk().getEntities()) {
-            if (entity instanceof LivingEntity && DragonUtil.hasTagOrGroup(entity, BOSS_TAG)) {
-                _bosses.add((LivingEntity) entity);
+            if (entity instanceof EnderCrystal) {
+                if (DragonFight.ROLES.has(entity, EntityRoles.SPAWNING_CRYSTAL)) {
+                    _spawningCrystals.add((EnderCrystal) entity);
+                }
+            } else {
+                trackFightEntity(entity);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When entities are loaded in the fight world, count any dragons, adopt
+     * crystals and bosses expected from the fight snapshot and track any
+     * bosses, support mobs and projectiles.
+     *
+     * Since Minecraft 1.17, entities are loaded separately from (and usually
+     * after) their chunks.
+     */
+    @EventHandler()
+    protected void onEntitiesLoad(EntitiesLoadEvent event) {
+        if (!DragonUtil.isFightWorld(event.getWorld())) {
+            return;
+        }
+
+        if (_recovering) {
+            Chunk chunk = event.getChunk();
+            _recoveryPendingChunks.remove(DragonUtil.getChunkKey(chunk.getX(), chunk.getZ()));
+        }
+
+        boolean recovering = !_missingCrystals.isEmpty() || !_missingBosses.isEmpty();
+        for (Entity entity : event.getEntities()) {
+            if (entity instanceof EnderDragon && !DragonFight.ROLES.has(entity, EntityRoles.BOSS)) {
+                countDragon((EnderDragon) entity);
+            }
+            if (recovering) {
+                recoverExpectedEntity(entity);
+            }
+            if (entity instanceof EnderCrystal) {
+                if (DragonFight.ROLES.has(entity, EntityRoles.SPAWNING_CRYSTAL)) {
+                    _spawningCrystals.add((EnderCrystal) entity);
+                }
+            } else {
+                trackFightEntity(entity);
             }
         }
+        checkRecoveryComplete();
     }
 
     // ------------------------------------------------------------------------
     /**
-     * When unloading a chunk in the fight world, un-track any bosses.
+     * When unloading a chunk in the fight world, un-track any bosses, support
+     * mobs and projectiles.
      */
     @EventHandler()
     protected void onChunkUnload(ChunkUnloadEvent event) {
@@ -879,9 +1118,16 @@ public class FightState implements Listener {
         }
 
         for (Entity entity : event.getChunk().getEntities()) {
-            if (entity instanceof LivingEntity && DragonUtil.hasTagOrGroup(entity, BOSS_TAG)) {
-                _bosses.remove(entity);
+            if (_entities.remove(entity) == FightEntities.Role.BOSS) {
+                if (_bosses.remove(entity)) {
+                    _bossHealth.remove((LivingEntity) entity);
+                }
+                _bossSightings.remove(entity);
+            }
+            if (entity instanceof EnderDragon) {
+                _dragonCensus.remove(entity);
             }
+            DragonFight.ROLES.invalidate(entity);
         }
     }
 
@@ -902,8 +1148,9 @@ public class FightState implements Listener {
         ProjectileSource shooter = projectile.getShooter();
         if (shooter instanceof Entity) {
             Entity shooterEntity = (Entity) shooter;
-            if (DragonUtil.hasTagOrGroup(shooterEntity, ENTITY_TAG)) {
-                projectile.getScoreboardTags().add(ENTITY_TAG);
+            if (DragonFight.ROLES.has(shooterEntity, EntityRoles.ENTITY)) {
+                DragonFight.ROLES.addTag(projectile, ENTITY_TAG);
+                _entities.add(projectile, FightEntities.Role.PROJECTILE);
             }
         }
     }
@@ -948,8 +1195,7 @@ public class FightState implements Listener {
             }
         } else if (entity instanceof EnderCrystal) {
             if (_crystals.contains(entity) ||
-                DragonUtil.hasTagOrGroup(entity, PILLAR_CRYSTAL_TAG) ||
-                DragonUtil.hasTagOrGroup(entity, SPAWNING_CRYSTAL_TAG)) {
+                DragonFight.ROLES.has(entity, EntityRoles.PILLAR_CRYSTAL | EntityRoles.SPAWNING_CRYSTAL)) {
                 event.setCancelled(true);
                 // debug("Prevented end crystal damage at " +
                 // Util.formatLocation(entity.getLocation()));
@@ -975,20 +1221,33 @@ public class FightState implements Listener {
         }
 
         // Update the "last seen time" of bosses and update boss bar.
-        if (DragonUtil.hasTagOrGroup(entity, BOSS_TAG)) {
-            Long now = System.currentTimeMillis();
-            entity.setMetadata(BOSS_SEEN_TIME_KEY, new FixedMetadataValue(DragonFight.PLUGIN, now));
-
+        if (DragonFight.ROLES.has(entity, EntityRoles.BOSS)) {
             LivingEntity boss = (LivingEntity) entity;
-            if (_bossBar != null && _bossBar.isVisible()) {
-                double finalHealth = Math.max(0.0, boss.getHealth() - event.getFinalDamage());
-                double healthLoss = boss.getHealth() - finalHealth;
-                double newProgress = _bossBar.getProgress() - healthLoss / DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH;
-                _bossBar.setProgress(Util.clamp(newProgress, 0.0, 1.0));
+            if (_bosses.contains(boss)) {
+                _bossSightings.seen(entity, System.currentTimeMillis());
+                _bossHealth.damage(boss, event.getFinalDamage());
+                updateBossBarProgress();
             }
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Update the total boss health and boss bar when a boss regains health.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onEntityRegainHealth(EntityRegainHealthEvent event) {
+        Entity entity = event.getEntity();
+        if (!DragonUtil.isFightWorld(entity.getWorld())) {
+            return;
+        }
+
+        if (entity instanceof LivingEntity && _bosses.contains(entity)) {
+            _bossHealth.regain((LivingEntity) entity, event.getAmount());
+            updateBossBarProgress();
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Prevent fight-relevant crystals from exploding.
@@ -1006,14 +1265,55 @@ public class FightState implements Listener {
             return;
         }
 
-        if (DragonUtil.hasTagOrGroup(entity, PILLAR_CRYSTAL_TAG) ||
-            DragonUtil.hasTagOrGroup(entity, SPAWNING_CRYSTAL_TAG)) {
+        if (DragonFight.ROLES.has(entity, EntityRoles.PILLAR_CRYSTAL | EntityRoles.SPAWNING_CRYSTAL)) {
 
             log("Prevented end crystal explosion at " + Util.formatLocation(entity.getLocation()));
             event.setCancelled(true);
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Update boss spawn sites affected by blocks destroyed by entity
+     * explosions.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onEntityExplodeLate(EntityExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            _spawnSites.invalidate(block);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update boss spawn sites affected by blocks destroyed by block explosions,
+     * e.g. beds.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onBlockExplode(BlockExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            _spawnSites.invalidate(block);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update boss spawn sites affected by placed blocks.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onBlockPlace(BlockPlaceEvent event) {
+        _spawnSites.invalidate(event.getBlock());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update boss spawn sites affected by broken blocks.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    protected void onBlockBreak(BlockBreakEvent event) {
+        _spawnSites.invalidate(event.getBlock());
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Prevent pillar crystals from being set on fire.
@@ -1030,9 +1330,9 @@ public class FightState implements Listener {
             return;
         }
 
-        if (DragonUtil.hasTagOrGroup(entity, PILLAR_CRYSTAL_TAG)) {
+        if (DragonFight.ROLES.has(entity, EntityRoles.PILLAR_CRYSTAL)) {
             event.setCancelled(true);
-            Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN, () -> entity.setFireTicks(1), 1);
+            _deferred.nextTick(_fightTasks, () -> entity.setFireTicks(1));
             // debug("Prevent combustion of " + event.getEntityType() +
             // " at " + Util.formatLocation(event.getEntity().getLocation()));
         }
@@ -1050,20 +1350,33 @@ public class FightState implements Listener {
         }
 
         if (event.getEntity() instanceof EnderDragon) {
+            _dragonCensus.remove(entity);
             onDragonDeath((EnderDragon) event.getEntity());
             return;
         }
 
-        boolean bossDied = DragonUtil.hasTagOrGroup(entity, BOSS_TAG);
+        _entities.remove(entity);
+        boolean bossDied = DragonFight.ROLES.has(entity, EntityRoles.BOSS);
+        DragonFight.ROLES.invalidate(entity);
         if (bossDied) {
-            _bosses.remove(entity);
+            if (_bosses.remove(entity)) {
+                _bossHealth.remove((LivingEntity) entity);
+            }
+            _bossSightings.remove(entity);
+            _snapshot.removeBoss(entity.getUniqueId());
             MobType bossMobType = BeastMaster.getMobType(entity);
             log("Boss died: " + bossMobType.getId());
         }
 
         // The fight is going and all the bosses are dead. Next stage!
+        // Until startup recovery is complete, some bosses may not have been
+        // found yet, so defer the decision until it is.
         if (isFightHappening() && bossDied && _bosses.isEmpty()) {
-            animateNextStage();
+            if (DragonFight.STARTUP.isReady()) {
+                animateNextStage();
+            } else {
+                _bossDeathDeferred = true;
+            }
         }
     }
 
@@ -1078,9 +1391,9 @@ public class FightState implements Listener {
             return;
         }
 
-        MobType mobType = BeastMaster.getMobType(entity);
-        if (mobType != null) {
-            if (DragonUtil.hasTagOrGroup(entity, ENTITY_TAG)) {
+        if (DragonFight.ROLES.has(entity, EntityRoles.ENTITY)) {
+            MobType mobType = BeastMaster.getMobType(entity);
+            if (mobType != null) {
                 event.setCancelled(true);
                 returnMobToBossSpawn(mobType, entity);
             }
@@ -1126,12 +1439,11 @@ public class FightState implements Listener {
         // and there is no dragon, then he is the fight owner.
         World fightWorld = DragonUtil.getFightWorld();
         DragonBattle battle = fightWorld.getEnderDragonBattle();
-        List<Entity> dragonSpawnCrystals = getDragonSpawnCrystals();
         if (battle.getEnderDragon() == null &&
             isDragonSpawnCrystalLocation(blockLoc) &&
-            dragonSpawnCrystals.size() == 3) {
+            _spawningCrystals.count() == 3) {
             log("The dragon was spawned by: " + event.getPlayer().getName());
-            DragonFight.CONFIG.FIGHT_OWNER = event.getPlayer().getUniqueId();
+            DragonFight.CONFIG.setFightOwner(event.getPlayer().getUniqueId());
             DragonFight.CONFIG.save();
         }
 
@@ -1176,6 +1488,8 @@ public class FightState implements Listener {
      */
     protected void onPillarCrystalSpawn(EnderCrystal crystal) {
         _crystals.add(crystal);
+        _snapshot.addCrystal(crystal.getUniqueId());
+        updateChunkResidency();
 
         Location loc = crystal.getLocation();
         log(crystal.getType() + " " + crystal.getUniqueId() +
@@ -1183,7 +1497,7 @@ public class FightState implements Listener {
 
         // Cannot set crystals invulnerable immediately.
         crystal.setGlowing(true);
-        crystal.getScoreboardTags().add(PILLAR_CRYSTAL_TAG);
+        DragonFight.ROLES.addTag(crystal, PILLAR_CRYSTAL_TAG);
 
         // Doesn't do anything. See the doc comment for onEntityDamageEarly().
         crystal.setInvulnerable(true);
@@ -1210,24 +1524,29 @@ public class FightState implements Listener {
         log("Dragon spawned (" + reason + "): " + dragon.getUniqueId());
 
         // Tag dragon as fight entity so its projectiles inherit that tag.
-        dragon.getScoreboardTags().add(ENTITY_TAG);
+        DragonFight.ROLES.addTag(dragon, ENTITY_TAG);
 
         // Doesn't do anything. See onEntityDamageEarly().
         dragon.setInvulnerable(true);
 
         // Remove surplus dragons after this one is added to the world.
-        Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN, () -> removeSurplusDragons(), 2);
+        scheduleSurplusDragonRemoval();
 
         // Setting the crystals invulnerable before the dragon spawns does not
         // work. But Minecraft prevents them from being damaged.
         // Cannot set them invulnerable this tick either.
-        for (EnderCrystal crystal : _crystals) {
-            Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN,
-                                               () -> crystal.setInvulnerable(true), 1);
-        }
+        _deferred.nextTick(_fightTasks, () -> {
+            for (EnderCrystal crystal : _crystals) {
+                crystal.setInvulnerable(true);
+            }
+        });
         reconfigureDragonBossBar();
 
         if (getStageNumber() == 0) {
+            // A new fight. Players may have rearranged the arena since the
+            // last one. The transition waits for the rebuild.
+            _spawnSites.clear();
+            _spawnSites.refreshAsync(DragonUtil.getFightWorld());
             animateNextStage();
         }
     }
@@ -1254,6 +1573,7 @@ public class FightState implements Listener {
         // In stage 11, the dragon died. Signify that the fight is over before
         // saving the config.
         immediatelyChangeStageNumber(0);
+        endFightTasks();
         // TODO: clean up associated entities?
 
         if (DragonFight.CONFIG.FIGHT_OWNER == null) {
@@ -1293,7 +1613,7 @@ public class FightState implements Listener {
 
         // Clear the fight owner once prizes have been given or unclaimed prizes
         // recorded, to prevent extra prizes if spurious dragons spawn.
-        DragonFight.CONFIG.FIGHT_OWNER = null;
+        DragonFight.CONFIG.setFightOwner(null);
         DragonFight.CONFIG.save();
     }
 
@@ -1391,7 +1711,7 @@ public class FightState implements Listener {
         }
 
         // Show the titles, messages and commands.
-        ArrayList<Player> nearby = getNearbyPlayers();
+        List<Player> nearby = getNearbyPlayers();
         log(nearby.size() + " players nearby.");
         OfflinePlayer owner = (DragonFight.CONFIG.FIGHT_OWNER != null) ? Bukkit.getOfflinePlayer(DragonFight.CONFIG.FIGHT_OWNER) : null;
         stage.announce(nearby, owner, bossSpawnLocation);
@@ -1422,30 +1742,10 @@ public class FightState implements Listener {
      *         end crystal to spawn the dragon.
      */
     protected static boolean isDragonSpawnCrystalLocation(Location loc) {
-        if (loc.getY() < 6 || loc.getBlock().getType() != Material.BEDROCK) {
+        if (SpawningCrystals.getSlot(loc.getBlockX(), loc.getBlockZ()) < 0 || loc.getY() < 6) {
             return false;
         }
-
-        int x = Math.abs(loc.getBlockX());
-        int z = Math.abs(loc.getBlockZ());
-        return ((x == 3 && z == 0) || (x == 0 && z == 3));
-    }
-
-    // ------------------------------------------------------------------------
-    /**
-     * Return all (0-4) dragon-spawning crystals currently in existence.
-     *
-     * The range on the Y coordinate is largeish because I'm not sure of the
-     * limits on the end portal spawn location.
-     *
-     * @return all dragon-spawning crystals currently in existence.
-     */
-    protected static List<Entity> getDragonSpawnCrystals() {
-        World fightWorld = DragonUtil.getFightWorld();
-        return fightWorld.getNearbyEntities(new Location(fightWorld, 0, 45, 0), 3, 40, 3)
-            .stream().filter(e -> e.getType() == EntityType.ENDER_CRYSTAL &&
-                                  isDragonSpawnCrystalLocation(e.getLocation().getBlock().getRelative(0, -1, 0).getLocation()))
-            .collect(Collectors.toList());
+        return loc.getBlock().getType() == Material.BEDROCK;
     }
 
     // ------------------------------------------------------------------------
@@ -1490,44 +1790,184 @@ public class FightState implements Listener {
         // From here forward, getNewStageNumber() is between 1 and 10.
         // Remove a random crystal. Random order due to hashing UUID.
         EnderCrystal replacedCrystal = _crystals.iterator().next();
+        startTransition(replacedCrystal, 0, ThreadLocalRandom.current().nextLong(), null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start or resume the animation of the transition to the new stage, which
+     * replaces a pillar crystal with the stage's bosses.
+     *
+     * The flicker cues are scheduled from the specified random seed, so that a
+     * resumed transition rebuilds the same cues at the same ticks.
+     *
+     * @param replacedCrystal the pillar crystal to replace.
+     * @param elapsedTicks    the number of ticks of the transition that have
+     *                        already elapsed; 0 to start from the beginning.
+     * @param seed            the random seed of the cue schedule.
+     * @param spawnLocation   the boss spawn location, if already chosen;
+     *                        otherwise null to search for one.
+     */
+    protected void startTransition(EnderCrystal replacedCrystal, int elapsedTicks, long seed, Location spawnLocation) {
+        // Search for boss spawn locations off the main thread while the
+        // crystal flickers, unless the location was chosen before a restart.
+        World fightWorld = DragonUtil.getFightWorld();
+        CompletableFuture<Void> spawnSitesReady = (spawnLocation == null) ? _spawnSites.refreshAsync(fightWorld)
+                                                                          : CompletableFuture.completedFuture(null);
 
-        // Schedule random flickering of the crystal and searching of the beam.
+        // The whole transition is one timeline, driven by a single task.
+        cancelTransition();
+        _transition = new Timeline("stage " + getNewStageNumber() + " transition", _transitionTasks);
+        _transitionCrystal = replacedCrystal;
+        _transitionSeed = seed;
+        _transitionSpawnLocation = spawnLocation;
+
+        // Random flickering of the crystal and searching of the beam.
         // Needs to be delayed slightly after the dragon spawn for beam to work.
+        Random flickerRandom = new Random(seed);
         int totalFlickerTicks = 5;
         while (totalFlickerTicks < STAGE_START_DELAY * 60 / 100) {
-            int flickerTicks = Util.random(1, 5);
+            int flickerTicks = 1 + flickerRandom.nextInt(5);
             totalFlickerTicks += flickerTicks;
-            Bukkit.getScheduler().scheduleSyncDelayedTask(DragonFight.PLUGIN, () -> {
-                Location beamTarget = getBossSpawnLocation().add(0, -2.5, 0);
+            _transition.at(totalFlickerTicks, "flicker", () -> {
+                Location beamTarget = getFlickerBeamTarget().add(0, -2.5, 0);
                 replacedCrystal.setBeamTarget(beamTarget);
                 replacedCrystal.setGlowing(!replacedCrystal.isGlowing());
                 playSound(beamTarget, Sound.BLOCK_BELL_RESONATE);
-            }, totalFlickerTicks);
+            });
         }
 
-        // Choose final beam target and spawn location.
-        Location bossSpawnLocation = getBossSpawnLocation();
-        log("Boss spawn location: " + Util.formatLocation(bossSpawnLocation));
+        // The search must be done by the end of the flickering.
+        _transition.at(totalFlickerTicks + 5, "final beam", () -> {
+            // Choose final beam target and spawn location.
+            chooseTransitionSpawnLocation(spawnSitesReady);
 
-        // End with the replaced crystal not glowing.
-        Bukkit.getScheduler().scheduleSyncDelayedTask(DragonFight.PLUGIN, () -> {
-            Location beamTarget = bossSpawnLocation.clone().add(0, -2.5, 0);
+            // End with the replaced crystal not glowing.
+            Location beamTarget = _transitionSpawnLocation.clone().add(0, -2.5, 0);
             replacedCrystal.setGlowing(false);
             replacedCrystal.setBeamTarget(beamTarget);
             playSound(beamTarget, Sound.BLOCK_BELL_RESONATE);
-        }, totalFlickerTicks + 5);
+            saveTransitionState();
+        });
 
-        // Give the boss a spawn sound and set final target position.
-        Bukkit.getScheduler().scheduleSyncDelayedTask(DragonFight.PLUGIN, () -> {
-            playSound(bossSpawnLocation, Sound.BLOCK_BEACON_ACTIVATE);
-        }, STAGE_START_DELAY * 80 / 100);
+        // Give the boss a spawn sound.
+        _transition.at(STAGE_START_DELAY * 80 / 100, "spawn sound", () -> {
+            chooseTransitionSpawnLocation(spawnSitesReady);
+            playSound(_transitionSpawnLocation, Sound.BLOCK_BEACON_ACTIVATE);
+        });
 
         // Remove the crystal and spawn the boss.
-        Bukkit.getScheduler().scheduleSyncDelayedTask(DragonFight.PLUGIN, () -> {
+        _transition.at(STAGE_START_DELAY, "spawn bosses", () -> {
             _crystals.remove(replacedCrystal);
+            _snapshot.removeCrystal(replacedCrystal.getUniqueId());
             replacedCrystal.remove();
+            chooseTransitionSpawnLocation(spawnSitesReady);
+            Location bossSpawnLocation = _transitionSpawnLocation;
+            _transition = null;
+            _transitionCrystal = null;
+            _transitionSpawnLocation = null;
+            _snapshot.setTransition(null);
             startStage(null, getNewStageNumber(), bossSpawnLocation);
-        }, STAGE_START_DELAY);
+        });
+
+        // When resuming after the final beam, its cue is skipped, so restore
+        // the crystal's final appearance.
+        if (spawnLocation != null) {
+            replacedCrystal.setGlowing(false);
+            replacedCrystal.setBeamTarget(spawnLocation.clone().add(0, -2.5, 0));
+        }
+        _transition.start(elapsedTicks);
+        saveTransitionState();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Choose the boss spawn location of the transition in progress, unless
+     * already chosen.
+     *
+     * The location is normally chosen by the final beam cue, but every cue
+     * that needs it calls this method, in case a resumed transition started
+     * after the final beam without a saved location.
+     *
+     * @param spawnSitesReady completes when the spawn site search is done.
+     */
+    protected void chooseTransitionSpawnLocation(CompletableFuture<Void> spawnSitesReady) {
+        if (_transitionSpawnLocation == null) {
+            if (spawnSitesReady.isDone()) {
+                _transitionSpawnLocation = getBossSpawnLocation();
+            } else {
+                log("The boss spawn location search missed its deadline.");
+                _transitionSpawnLocation = getFallbackBossSpawnLocation(360 * (float) Math.random());
+            }
+            log("Boss spawn location: " + Util.formatLocation(_transitionSpawnLocation));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all pending tasks scheduled on behalf of the fight that has just
+     * ended.
+     */
+    protected void endFightTasks() {
+        int cancelled = _fightTasks.cancelAll();
+        if (cancelled > 0) {
+            log("Cancelled " + cancelled + " pending fight tasks.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the progress of the stage transition in the fight snapshot, so
+     * that it can be resumed after a restart.
+     *
+     * The snapshot is updated when the transition starts, when the boss spawn
+     * location is chosen and when the plugin is disabled.
+     */
+    protected void saveTransitionState() {
+        if (_transition == null) {
+            _snapshot.setTransition(null);
+        } else {
+            _snapshot.setTransition(new FightSnapshot.Transition(getNewStageNumber(), _transitionCrystal.getUniqueId(),
+                                                                 _transition.getElapsedTicks(), _transitionSeed,
+                                                                 _transitionSpawnLocation));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel the stage transition animation, if one is running.
+     */
+    protected void cancelTransition() {
+        if (_transition != null) {
+            log("Cancelled " + _transition + ".");
+            _transition.cancel();
+            _transitionTasks.cancelAll();
+            _transition = null;
+            _transitionCrystal = null;
+            _transitionSpawnLocation = null;
+            _snapshot.setTransition(null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a location for the flickering crystal beam to point at during a
+     * stage transition.
+     *
+     * If the boss spawn location search is still running, a random point in
+     * the spawn annulus is used, since the beam is only for show.
+     *
+     * @return the beam target.
+     */
+    protected Location getFlickerBeamTarget() {
+        World fightWorld = DragonUtil.getFightWorld();
+        if (_spawnSites.isReady(fightWorld)) {
+            return getBossSpawnLocation();
+        }
+
+        double range = Util.random(BOSS_SPAWN_RADIUS_MIN, BOSS_SPAWN_RADIUS_MAX);
+        double angle = Util.random() * 2.0 * Math.PI;
+        return new Location(fightWorld, range * Math.cos(angle), ORIGIN_Y + 1, range * Math.sin(angle));
     }
 
     // ------------------------------------------------------------------------
@@ -1543,6 +1983,7 @@ public class FightState implements Listener {
         while (!_crystals.isEmpty() && count-- > 0) {
             EnderCrystal replacedCrystal = _crystals.iterator().next();
             _crystals.remove(replacedCrystal);
+            _snapshot.removeCrystal(replacedCrystal.getUniqueId());
             replacedCrystal.remove();
         }
     }
@@ -1571,7 +2012,7 @@ public class FightState implements Listener {
         Stage stage = DragonFight.CONFIG.getStage(getStageNumber());
         log("Beginning stage: " + getStageNumber());
 
-        DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH = 0;
+        DragonFight.CONFIG.setTotalBossMaxHealth(0);
 
         // Spawn bosses in case of stage 1 through 10. And show titles.
         spawnStage(stage, bossSpawnLocation);
@@ -1592,49 +2033,45 @@ public class FightState implements Listener {
      * Choose a random location to spawn the boss with a 3x3x3 volume of air
      * within the arena.
      *
+     * Candidate locations are cached in {@link #_spawnSites}. If the cache
+     * has not been built yet, an asynchronous rebuild is started and the
+     * fallback location is used, rather than scanning the arena on the main
+     * thread.
+     *
      * If a suitable location cannot be found, put it on the portal pillar.
      *
      * If players decide to arrange the arena to frustrate efforts to find a
      * location to spawn the boss, moderate them hard.
      */
-    protected static Location getBossSpawnLocation() {
+    protected Location getBossSpawnLocation() {
         World fightWorld = DragonUtil.getFightWorld();
         float yaw = 360 * (float) Math.random();
+        if (!_spawnSites.isBuilt(fightWorld)) {
+            _spawnSites.refreshAsync(fightWorld);
+            log("Boss spawn sites are not known yet. Defaulting to the fallback spawn location.");
+            return getFallbackBossSpawnLocation(yaw);
+        }
 
-        // Try to find a valid spawn location.
-        // Retry up to a few times on failures.
-        for (int attempt = 1; attempt <= BOSS_SPAWN_MAX_RETRIES; attempt++) {
-            double range = Util.random(BOSS_SPAWN_RADIUS_MIN, BOSS_SPAWN_RADIUS_MAX);
-            double angle = Util.random() * 2.0 * Math.PI;
-            double x = range * Math.cos(angle);
-            double z = range * Math.sin(angle);
-            Location startLoc = new Location(fightWorld, x, ORIGIN_Y, z, yaw, 0f);
-
-            // Find local highest block to stand on.
-            Location loc = null;
-            for (int i = 5; i >= -5; --i) {
-                loc = startLoc.clone().add(0, i, 0);
-                if (!loc.getBlock().isPassable()) {
-                    break;
-                }
-            }
-
-            // Now go up to find space.
-            for (int i = 1; i < 10; ++i) {
-                loc.add(0, 1, 0);
-                if (Util.isPassable3x3x3(loc)) {
-                    return loc;
-                }
-            }
-
-            // No valid space found at these coordinates; Log and retry.
-            log(String.format("Failed to find space to spawn bosses at x=%.2f, z=%.2f", x, z));
+        Location loc = _spawnSites.pick(fightWorld, yaw);
+        if (loc != null) {
+            return loc;
         }
 
-        // If all else fails. Plonk it on the portal pillar.
-        // TODO Make the fallback spawn location configurable
         log("No valid locations found. Defaulting to the fallback spawn location.");
-        return new Location(fightWorld, 0.5, ORIGIN_Y + 1, 0.5, yaw, 0f);
+        return getFallbackBossSpawnLocation(yaw);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the boss spawn location used when no location in the arena can
+     * be found: on top of the portal pillar.
+     *
+     * @param yaw the yaw of the returned location.
+     * @return the fallback boss spawn location.
+     */
+    protected Location getFallbackBossSpawnLocation(float yaw) {
+        // TODO Make the fallback spawn location configurable
+        return new Location(DragonUtil.getFightWorld(), 0.5, ORIGIN_Y + 1, 0.5, yaw, 0f);
     }
 
     // ------------------------------------------------------------------------
@@ -1644,9 +2081,9 @@ public class FightState implements Listener {
      *
      * @param entity the mob.
      */
-    protected static void returnMobToBossSpawn(MobType mobType, Entity entity) {
+    protected void returnMobToBossSpawn(MobType mobType, Entity entity) {
         Util.doTeleportEffects(mobType, entity.getLocation());
-        Location newLoc = FightState.getBossSpawnLocation();
+        Location newLoc = getBossSpawnLocation();
         entity.teleport(newLoc);
     }
 
@@ -1666,13 +2103,10 @@ public class FightState implements Listener {
      * Return the collection of players near the end portal that should see
      * titles.
      *
-     * @return nearby players.
+     * @return an unmodifiable list of nearby players.
      */
-    protected static ArrayList<Player> getNearbyPlayers() {
-        World world = DragonUtil.getFightWorld();
-        return world.getPlayers().stream()
-            .filter(p -> DragonUtil.getMagnitude2D(p.getLocation()) < NEARBY_RADIUS)
-            .collect(Collectors.toCollection(ArrayList::new));
+    protected static List<Player> getNearbyPlayers() {
+        return DragonFight.ARENA.getPlayers();
     }
 
     // ------------------------------------------------------------------------
@@ -1685,15 +2119,19 @@ public class FightState implements Listener {
     protected void updateBossBar() {
         if (getStageNumber() >= 1 && getStageNumber() <= 11) {
             // Vanilla/Bukkit code reuses the dragon boss bar across fights, so
-            // set its colour across all stages.
+            // set its colour across all stages. Each setColor() sends a
+            // packet to every viewer, so only set it when it differs.
             Stage stage = DragonFight.CONFIG.getStage(11);
-            DragonBattle battle = DragonUtil.getFightWorld().getEnderDragonBattle();
-            battle.getBossBar().setColor(stage.getBarColor());
+            BossBar dragonBar = DragonUtil.getFightWorld().getEnderDragonBattle().getBossBar();
+            if (dragonBar.getColor() != stage.getBarColor()) {
+                dragonBar.setColor(stage.getBarColor());
+            }
         }
 
         if (_bosses.size() == 0 || getStageNumber() < 1 || getStageNumber() > 10) {
             if (_bossBar != null) {
                 _bossBar.setVisible(false);
+                _bossBarViewers.clear();
             }
             return;
         }
@@ -1703,18 +2141,32 @@ public class FightState implements Listener {
         if (_bossBar == null) {
             _bossBar = Bukkit.createBossBar("", BarColor.WHITE, BarStyle.SOLID, new BarFlag[0]);
         }
-        _bossBar.setColor(stage.getBarColor());
-        _bossBar.setTitle(stage.format(stage.getTitle()));
-        _bossBar.setVisible(true);
+        if (_bossBar.getColor() != stage.getBarColor()) {
+            _bossBar.setColor(stage.getBarColor());
+        }
+        String title = stage.format(stage.getTitle());
+        if (!title.equals(_bossBar.getTitle())) {
+            _bossBar.setTitle(title);
+        }
+        if (!_bossBar.isVisible()) {
+            _bossBar.setVisible(true);
+        }
 
         // Update the players who see the bar.
-        _bossBar.removeAll();
-        getNearbyPlayers().forEach(p -> _bossBar.addPlayer(p));
+        _bossBarViewers.update(_bossBar, DragonUtil.getFightWorld(), getNearbyPlayers());
+
+        updateBossBarProgress();
+    }
 
-        // Update the bar progress according to total remaining boss health.
+    // ------------------------------------------------------------------------
+    /**
+     * Update the progress of the stage boss bar, if visible, according to the
+     * total remaining boss health.
+     */
+    protected void updateBossBarProgress() {
         // The total health should never be 0 by the time it gets in here
         // but just in case I'm wrong, guard against division by 0.
-        if (DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH > 0.001) {
+        if (_bossBar != null && _bossBar.isVisible() && DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH > 0.001) {
             double newProgress = getTotalBossHealth() / DragonFight.CONFIG.TOTAL_BOSS_MAX_HEALTH;
             _bossBar.setProgress(Util.clamp(newProgress, 0.0, 1.0));
         }
@@ -1727,7 +2179,19 @@ public class FightState implements Listener {
      * @return the total health of all extant bosses.
      */
     public double getTotalBossHealth() {
-        return _bosses.stream().reduce(0.0, (sum, b) -> sum + b.getHealth(), (h1, h2) -> h1 + h2);
+        return _bossHealth.getTotal();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reconcile the maintained total boss health with the actual health of the
+     * bosses, and log any significant drift that was corrected.
+     */
+    protected void reconcileBossHealth() {
+        double drift = _bossHealth.reconcile(_bosses);
+        if (Math.abs(drift) > MAX_BOSS_HEALTH_DRIFT) {
+            debug("Corrected total boss health drift of " + String.format("%.2f", drift) + ".");
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -1740,7 +2204,7 @@ public class FightState implements Listener {
      */
     protected void removeSurplusDragons() {
         World fightWorld = DragonUtil.getFightWorld();
-        Collection<EnderDragon> dragons = fightWorld.getEntitiesByClass(EnderDragon.class);
+        List<EnderDragon> dragons = _dragonCensus.getDragons();
         if (dragons.size() > 1) {
             log("Removing surplus dragons.");
             log("There are currently: " + dragons.size() + " dragons.");
@@ -1751,27 +2215,25 @@ public class FightState implements Listener {
         DragonBattle battle = fightWorld.getEnderDragonBattle();
         if (battle.getEnderDragon() == null) {
             // Assume vanilla intends the newest dragon instance to replace
-            // whatever others exist. Sort into ascending order by time existed.
-            List<EnderDragon> dragonsByAge = dragons.stream()
-                .sorted((d1, d2) -> d1.getTicksLived() - d2.getTicksLived())
-                .collect(Collectors.toCollection(ArrayList::new));
-
-            // Remove every dragon after the youngest.
-            if (dragonsByAge.size() > 0) {
-                retainedDragon = dragonsByAge.get(0);
-            }
-            for (int i = 1; i < dragonsByAge.size(); ++i) {
-                EnderDragon dragon = dragonsByAge.get(i);
-                DragonUtil.removeDragon(dragon);
+            // whatever others exist. Find the youngest.
+            for (EnderDragon dragon : dragons) {
+                if (retainedDragon == null || dragon.getTicksLived() < retainedDragon.getTicksLived()) {
+                    retainedDragon = dragon;
+                }
             }
         } else {
-            // Let the dragon battle keep the ender dragon it manages, remove
-            // the others.
+            // Let the dragon battle keep the ender dragon it manages.
             retainedDragon = battle.getEnderDragon();
-            for (EnderDragon dragon : dragons) {
-                if (dragon != battle.getEnderDragon()) {
+        }
+
+        // Remove the others. Those that have since been tagged as bosses are
+        // merely dropped from the census.
+        for (EnderDragon dragon : dragons) {
+            if (dragon != retainedDragon) {
+                if (!DragonFight.ROLES.hasCurrent(dragon, EntityRoles.BOSS)) {
                     DragonUtil.removeDragon(dragon);
                 }
+                _dragonCensus.remove(dragon);
             }
         }
 
@@ -1783,7 +2245,56 @@ public class FightState implements Listener {
 
     // ------------------------------------------------------------------------
     /**
-     * A repeating task that tracks boss fight participants to:
+     * Add a dragon to the census, and if that makes more than one dragon,
+     * schedule removal of the surplus.
+     *
+     * @param dragon the dragon, which must not be a stage boss.
+     */
+    protected void countDragon(EnderDragon dragon) {
+        if (_dragonCensus.add(dragon) && _dragonCensus.size() > 1) {
+            log("Surplus dragon detected: " + dragon.getUniqueId() +
+                " at " + Util.formatLocation(dragon.getLocation()));
+            scheduleSurplusDragonRemoval();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule a call to {@link #removeSurplusDragons()}, unless one is already
+     * pending.
+     *
+     * The DragonBattle doesn't reference a newly spawned dragon until the next
+     * tick, so removal is deferred until it references a dragon, which is the
+     * one that is kept.
+     */
+    protected void scheduleSurplusDragonRemoval() {
+        if (!_surplusDragonRemovalPending) {
+            _surplusDragonRemovalPending = true;
+            _deferred.whenDragonKnown(_pluginTasks, () -> {
+                _surplusDragonRemovalPending = false;
+                removeSurplusDragons();
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reconcile the dragon census with the dragons in the fight world and
+     * remove any surplus.
+     *
+     * This scans every entity in the fight world, so it runs infrequently.
+     */
+    protected void auditDragons() {
+        int discrepancies = _dragonCensus.audit(DragonUtil.getFightWorld());
+        if (discrepancies > 0) {
+            log("Dragon audit corrected " + discrepancies + " census discrepancies.");
+        }
+        removeSurplusDragons();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A task that tracks boss fight participants to:
      *
      * <ul>
      * <li>Return bosses to the fight area when they go outside the designated
@@ -1791,58 +2302,269 @@ public class FightState implements Listener {
      * <li>Return bosses to the fight area when they haven't taken damage in a
      * minute, indicating the player can't find them.</li>
      * </ul>
+     *
+     * The task runs every tick while there is a fight or there are bosses, and
+     * is dormant otherwise. Each boss is checked on its own schedule: bosses
+     * near the radius or Y limits are checked more often than those safely in
+     * the middle of the arena. The checks that are due in a tick are done in
+     * order of due time until the tick's time budget runs out; any remaining
+     * checks are done on the following ticks. Housekeeping (the boss bar and
+     * health reconciliation) is done every {@link #PERIOD_TICKS}.
      */
     private final class TrackerTask implements Runnable {
         // --------------------------------------------------------------------
         /**
-         * Period in ticks between runs of this task.
+         * Period in ticks between housekeeping runs, and between checks of
+         * bosses at a moderate distance from the limits.
          */
         static final int PERIOD_TICKS = 20;
 
+        /**
+         * Period in ticks between checks of bosses near the limits.
+         */
+        static final int NEAR_LIMIT_PERIOD_TICKS = 5;
+
+        /**
+         * Period in ticks between checks of bosses far from the limits.
+         */
+        static final int CENTRAL_PERIOD_TICKS = 60;
+
+        /**
+         * Bosses closer than this distance to the radius or Y limit are near
+         * the limits.
+         */
+        static final double NEAR_LIMIT_MARGIN = 16.0;
+
+        /**
+         * Bosses farther than this distance from the radius and Y limits are
+         * central.
+         */
+        static final double CENTRAL_MARGIN = 40.0;
+
+        /**
+         * Time budget for boss checks in each tick, in nanoseconds. At least
+         * one due check is done per tick, regardless.
+         */
+        static final long TICK_BUDGET_NANOS = 1_000_000;
+
+        // --------------------------------------------------------------------
+        /**
+         * Start running every tick, if dormant.
+         *
+         * The tick and housekeeping counts restart from zero; no checks are
+         * scheduled while dormant, so none are due relative to the old count.
+         */
+        void wake() {
+            if (_task == null) {
+                _tick = 0;
+                _runCount = 0;
+                _task = _pluginTasks.runTaskTimer(this, 1, 1);
+                debug("Boss tracker awake.");
+            }
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Start checking a boss, beginning on the next tick.
+         *
+         * @param boss the boss.
+         */
+        void track(LivingEntity boss) {
+            wake();
+            if (_scheduled.add(boss)) {
+                _checks.add(new Check(boss, _tick + 1));
+            }
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the number of bosses with scheduled checks.
+         *
+         * @return the number of bosses being checked.
+         */
+        int size() {
+            return _scheduled.size();
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return true if the tracker is dormant.
+         *
+         * @return true if dormant.
+         */
+        boolean isDormant() {
+            return _task == null;
+        }
+
         // --------------------------------------------------------------------
         /**
          * @see java.lang.Runnable#run()
          */
         @Override
         public void run() {
-            Iterator<LivingEntity> it = _bosses.iterator();
-            while (it.hasNext()) {
-                LivingEntity boss = it.next();
-
-                // Clean up bosses that have been remove()d, e.g. by /butcher.
-                if (!boss.isValid()) {
-                    it.remove();
+            ++_tick;
+            if (_tick % PERIOD_TICKS == 0) {
+                housekeeping();
+                if (_task == null) {
+                    return;
                 }
+            }
 
-                // Track last seen time of bosses.
-                long now = System.currentTimeMillis();
-                List<MetadataValue> metas = boss.getMetadata(BOSS_SEEN_TIME_KEY);
-                if (metas.isEmpty()) {
-                    boss.setMetadata(BOSS_SEEN_TIME_KEY, new FixedMetadataValue(DragonFight.PLUGIN, now));
+            long deadline = System.nanoTime() + TICK_BUDGET_NANOS;
+            while (!_checks.isEmpty() && _checks.peek()._dueTick <= _tick) {
+                Check check = _checks.poll();
+                int period = checkBoss(check._boss);
+                if (period > 0) {
+                    check._dueTick = _tick + period;
+                    _checks.add(check);
                 } else {
-                    long lastSeen = metas.get(0).asLong();
-                    if (now - lastSeen > MAX_BOSS_NO_SEEN_TIME_MS) {
-                        MobType mobType = BeastMaster.getMobType(boss);
-                        log("Returning " + mobType.getId() + " " +
-                            boss.getUniqueId().toString().substring(0, 8) + " to the arena due to timeout.");
-                        returnMobToBossSpawn(mobType, boss);
-                        boss.setMetadata(BOSS_SEEN_TIME_KEY, new FixedMetadataValue(DragonFight.PLUGIN, now));
-                        continue;
-                    }
+                    _scheduled.remove(check._boss);
                 }
 
-                // Enforce "last seen" and position limits on bosses.
-                Location loc = boss.getLocation();
-                if (loc.getY() < MIN_BOSS_Y || DragonUtil.getMagnitude2D(loc) > BOSS_RADIUS) {
-                    MobType mobType = BeastMaster.getMobType(boss);
-                    log("Returning " + mobType.getId() + " " +
-                        boss.getUniqueId().toString().substring(0, 8) + " to the arena due to location.");
-                    returnMobToBossSpawn(mobType, boss);
-                    boss.setMetadata(BOSS_SEEN_TIME_KEY, new FixedMetadataValue(DragonFight.PLUGIN, now));
+                if (System.nanoTime() > deadline) {
+                    break;
                 }
-            } // while
-            updateBossBar();
+            }
         } // run
+
+        // --------------------------------------------------------------------
+        /**
+         * Do the periodic work that is not specific to one boss, and go
+         * dormant if there is no fight and there are no bosses.
+         */
+        void housekeeping() {
+            // Drop projectiles and mobs that left the world without an event.
+            _entities.removeInvalid();
+
+            if (++_runCount % HEALTH_RECONCILE_RUNS == 0) {
+                reconcileBossHealth();
+            }
+            updateBossBar();
+
+            if (getStageNumber() == 0 && _bosses.isEmpty()) {
+                _pluginTasks.cancel(_task);
+                _task = null;
+                _checks.clear();
+                _scheduled.clear();
+                debug("Boss tracker dormant.");
+            }
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Check one boss, returning it to the arena if necessary.
+         *
+         * @param boss the boss.
+         * @return the number of ticks until the next check of this boss, or 0
+         *         if the boss should no longer be checked.
+         */
+        int checkBoss(LivingEntity boss) {
+            if (!_bosses.contains(boss)) {
+                return 0;
+            }
+
+            // Clean up bosses that have been remove()d, e.g. by /butcher.
+            // Bosses are also invalid when their chunk unloads, but are
+            // still part of the fight, so keep those in the snapshot.
+            if (!boss.isValid()) {
+                _bosses.remove(boss);
+                _bossHealth.remove(boss);
+                _bossSightings.remove(boss);
+                Location loc = boss.getLocation();
+                if (boss.getWorld().isChunkLoaded(loc.getBlockX() >> 4, loc.getBlockZ() >> 4)) {
+                    _snapshot.removeBoss(boss.getUniqueId());
+                }
+                return 0;
+            }
+
+            // Track last seen time of bosses.
+            long now = System.currentTimeMillis();
+            if (_bossSightings.getTimeSinceSeen(boss, now) > MAX_BOSS_NO_SEEN_TIME_MS) {
+                MobType mobType = BeastMaster.getMobType(boss);
+                log("Returning " + mobType.getId() + " " +
+                    boss.getUniqueId().toString().substring(0, 8) + " to the arena due to timeout.");
+                returnMobToBossSpawn(mobType, boss);
+                _bossSightings.seen(boss, now);
+                return PERIOD_TICKS;
+            }
+
+            // Enforce "last seen" and position limits on bosses.
+            Location loc = boss.getLocation();
+            double radialMargin = BOSS_RADIUS - DragonUtil.getMagnitude2D(loc);
+            double verticalMargin = loc.getY() - MIN_BOSS_Y;
+            if (verticalMargin < 0 || radialMargin < 0) {
+                MobType mobType = BeastMaster.getMobType(boss);
+                log("Returning " + mobType.getId() + " " +
+                    boss.getUniqueId().toString().substring(0, 8) + " to the arena due to location.");
+                returnMobToBossSpawn(mobType, boss);
+                _bossSightings.seen(boss, now);
+                return PERIOD_TICKS;
+            }
+
+            double margin = Math.min(radialMargin, verticalMargin);
+            return (margin < NEAR_LIMIT_MARGIN) ? NEAR_LIMIT_PERIOD_TICKS
+                                                : (margin > CENTRAL_MARGIN) ? CENTRAL_PERIOD_TICKS
+                                                                            : PERIOD_TICKS;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * A scheduled check of a boss.
+         */
+        final class Check {
+            /**
+             * Constructor.
+             *
+             * @param boss    the boss.
+             * @param dueTick the tick when the check is due.
+             */
+            Check(LivingEntity boss, long dueTick) {
+                _boss = boss;
+                _dueTick = dueTick;
+            }
+
+            /**
+             * The boss.
+             */
+            final LivingEntity _boss;
+
+            /**
+             * The tick when the check is due.
+             */
+            long _dueTick;
+        } // class Check
+
+        // --------------------------------------------------------------------
+        /**
+         * Number of housekeeping runs between reconciliations of the total
+         * boss health.
+         */
+        static final int HEALTH_RECONCILE_RUNS = 30;
+
+        /**
+         * Number of housekeeping runs since the task last woke.
+         */
+        int _runCount;
+
+        /**
+         * Number of ticks this task has run since it last woke.
+         */
+        long _tick;
+
+        /**
+         * The repeating task, or null if dormant.
+         */
+        BukkitTask _task;
+
+        /**
+         * Scheduled checks, ordered by due tick.
+         */
+        final PriorityQueue<Check> _checks = new PriorityQueue<>((c1, c2) -> Long.compare(c1._dueTick, c2._dueTick));
+
+        /**
+         * The bosses with scheduled checks.
+         */
+        final HashSet<LivingEntity> _scheduled = new HashSet<>();
     } // class TrackerTask
 
     // ------------------------------------------------------------------------
@@ -1850,20 +2572,20 @@ public class FightState implements Listener {
      * Tag applied to pillar end crystals on spawn so we know which ones are in
      * the fight on restart.
      */
-    private static final String PILLAR_CRYSTAL_TAG = "df-crystal";
+    static final String PILLAR_CRYSTAL_TAG = "df-crystal";
 
     /**
      * Tag applied to dragon-spawning end crystals on spawn so we know which
      * ones are in the fight on restart.
      */
-    private static final String SPAWNING_CRYSTAL_TAG = "df-spawning";
+    static final String SPAWNING_CRYSTAL_TAG = "df-spawning";
 
     /**
      * Tag applied to any entity spawned by the dragon fight: bosses, their
      * support mobs and launched projectiles, with the exception of the dragon
      * and crystals.
      */
-    private static final String ENTITY_TAG = "df-entity";
+    static final String ENTITY_TAG = "df-entity";
 
     /**
      * Group tag of summoned boss mobs on spawn.
@@ -1872,12 +2594,12 @@ public class FightState implements Listener {
      * Note also that per-stage boss mobs can be enderdragons, but they are not
      * the final boss.
      */
-    private static final String BOSS_TAG = "df-boss";
+    static final String BOSS_TAG = "df-boss";
 
     /**
      * Group tag of support mobs summoned by bosses.
      */
-    private static final String SUPPORT_TAG = "df-support";
+    static final String SUPPORT_TAG = "df-support";
 
     /**
      * Number of ticks to wait before starting the next stage.
@@ -1890,7 +2612,13 @@ public class FightState implements Listener {
      *
      * Note that only 2-D distance from the world origin is considered.
      */
-    private static final double NEARBY_RADIUS = 100.0;
+    static final double NEARBY_RADIUS = 100.0;
+
+    /**
+     * Distance in blocks beyond {@link #NEARBY_RADIUS} that a player must go
+     * before they stop seeing the stage boss bar.
+     */
+    private static final double BOSS_BAR_HYSTERESIS = 10.0;
 
     /**
      * Minimum radius around the origin where bosses spawn.
@@ -1902,11 +2630,6 @@ public class FightState implements Listener {
      */
     private static final double BOSS_SPAWN_RADIUS_MAX = 30.0;
 
-    /**
-     * Maximum number of times to try to find a valid boss spawn location.
-     */
-    private static final int BOSS_SPAWN_MAX_RETRIES = 5;
-
     /**
      * Starting Y coordinate to search for a spawnable location for the boss.
      */
@@ -1933,10 +2656,10 @@ public class FightState implements Listener {
     private static final double TRACKED_RADIUS = BOSS_RADIUS + 80.0;
 
     /**
-     * System.currentMillis() timestamp of the last time a boss took damage or
-     * was teleported back to the arena.
+     * Maximum time in ticks to wait for the fight's entities to load on
+     * startup before recovering the fight state from those that have.
      */
-    private static String BOSS_SEEN_TIME_KEY = "seen-time";
+    private static final long RECOVERY_TIMEOUT_TICKS = 20 * 20;
 
     /**
      * Maximum time in milliseconds that a boss is allowed to stand around not
@@ -1944,12 +2667,98 @@ public class FightState implements Listener {
      */
     private static final long MAX_BOSS_NO_SEEN_TIME_MS = 90 * 1000;
 
+    /**
+     * Discrepancy between the maintained and actual total boss health below
+     * which a reconciliation is not logged.
+     */
+    private static final double MAX_BOSS_HEALTH_DRIFT = 0.01;
+
     // ------------------------------------------------------------------------
     /**
      * The remaining end crystals.
      */
     protected HashSet<EnderCrystal> _crystals = new HashSet<>();
 
+    /**
+     * The (up to four) end crystals placed on the portal frame to summon the
+     * dragon.
+     */
+    protected SpawningCrystals _spawningCrystals = new SpawningCrystals();
+
+    /**
+     * Cached boss spawn locations.
+     */
+    protected SpawnSites _spawnSites = new SpawnSites(BOSS_SPAWN_RADIUS_MIN, BOSS_SPAWN_RADIUS_MAX, (int) ORIGIN_Y);
+
+    /**
+     * The ender dragons in the fight world, excluding stage bosses.
+     */
+    protected DragonCensus _dragonCensus = new DragonCensus();
+
+    /**
+     * True if a call to {@link #removeSurplusDragons()} has been scheduled and
+     * has not yet run.
+     */
+    protected boolean _surplusDragonRemovalPending;
+
+    /**
+     * Snapshot of the crystals and bosses in the fight, used to recover them
+     * by UUID after a restart.
+     */
+    protected FightSnapshot _snapshot = new FightSnapshot("fight.snapshot");
+
+    /**
+     * True if the fight snapshot was loaded on startup.
+     */
+    protected boolean _snapshotLoaded;
+
+    /**
+     * Holds tickets on the chunks needed in the current phase of the fight.
+     */
+    protected ChunkResidency _chunkResidency = new ChunkResidency();
+
+    /**
+     * True while the fight state is being recovered on startup, until
+     * {@link #completeRecovery()}.
+     */
+    protected boolean _recovering;
+
+    /**
+     * Keys of chunks in the tracked area whose entities have not loaded since
+     * startup.
+     */
+    protected HashSet<Long> _recoveryPendingChunks = new HashSet<>();
+
+    /**
+     * Task that completes recovery if the expected entities don't load in
+     * time, or null after recovery.
+     */
+    protected BukkitTask _recoveryTimeoutTask;
+
+    /**
+     * True if a boss died during recovery, leaving no known bosses, so that
+     * the stage may need to advance once recovery completes.
+     */
+    protected boolean _bossDeathDeferred;
+
+    /**
+     * Value of System.nanoTime() when startup began waiting for the fight's
+     * entities to load.
+     */
+    protected long _entityWaitStart;
+
+    /**
+     * UUIDs of crystals in the fight snapshot that have not been loaded since
+     * startup.
+     */
+    protected HashSet<UUID> _missingCrystals = new HashSet<>();
+
+    /**
+     * Map from UUID to maximum health of bosses in the fight snapshot that have
+     * not been loaded since startup.
+     */
+    protected HashMap<UUID, Double> _missingBosses = new HashMap<>();
+
     /**
      * The current set of boss mobs.
      *
@@ -1958,13 +2767,78 @@ public class FightState implements Listener {
      */
     protected HashSet<LivingEntity> _bosses = new HashSet<>();
 
+    /**
+     * The time each boss in {@link #_bosses} was last seen, i.e. took damage or
+     * was returned to the arena.
+     */
+    protected BossSightings _bossSightings = new BossSightings();
+
+    /**
+     * The total health of the bosses in {@link #_bosses}.
+     */
+    protected BossHealth _bossHealth = new BossHealth();
+
+    /**
+     * Index of bosses, support mobs and projectiles in the current fight, used
+     * to clean them up without scanning the whole fight world.
+     */
+    protected FightEntities _entities = new FightEntities();
+
     /**
      * Tracks mobs to enforce boundaries and update boss bars.
      */
     protected TrackerTask _tracker = new TrackerTask();
 
+    /**
+     * Tasks that last as long as the plugin is enabled.
+     */
+    protected TaskScope _pluginTasks = new TaskScope("plugin");
+
+    /**
+     * Tasks scheduled on behalf of the current fight, cancelled when it ends.
+     */
+    protected TaskScope _fightTasks = new TaskScope("fight");
+
+    /**
+     * Tasks of the stage transition in progress, cancelled when it is.
+     */
+    protected TaskScope _transitionTasks = new TaskScope("transition");
+
+    /**
+     * Actions deferred to a later tick, drained by a single plugin task.
+     */
+    protected DeferredActions _deferred = new DeferredActions(_pluginTasks);
+
+    /**
+     * The timeline of the stage transition animation that is in progress, or
+     * null if none.
+     */
+    protected Timeline _transition;
+
+    /**
+     * The pillar crystal replaced by the transition in progress, or null if
+     * none.
+     */
+    protected EnderCrystal _transitionCrystal;
+
+    /**
+     * The random seed of the cue schedule of the transition in progress.
+     */
+    protected long _transitionSeed;
+
+    /**
+     * The boss spawn location chosen by the transition in progress, or null if
+     * not yet chosen.
+     */
+    protected Location _transitionSpawnLocation;
+
     /**
      * Current stage boss bar, which tracks all currently active bosses.
      */
     protected BossBar _bossBar;
+
+    /**
+     * The players who see {@link #_bossBar}.
+     */
+    protected BossBarViewers _bossBarViewers = new BossBarViewers(NEARBY_RADIUS, NEARBY_RADIUS + BOSS_BAR_HYSTERESIS);
 } // class FightState
\ No newline at end of file
@@ -0,0 +1,471 @@
+package nu.nerd.df;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+// ----------------------------------------------------------------------------
+/**
+ * Stores the number of unclaimed dragon prizes of each player.
+ *
+ * In memory, counts are kept in an open-addressing hash table keyed by the two
+ * halves of the player's UUID, held in primitive arrays. Only players with a
+ * non-zero count are present.
+ *
+ * On disk, each player with prizes has a fixed-size record in a binary file,
+ * consisting of the UUID (two longs) and the count (an int), after a short
+ * header. The table remembers the index of each player's record, so that a
+ * change to a single player's count writes only that player's record. When a
+ * count drops to zero, the record is zeroed and reused for the next player
+ * who is owed a prize, so the file never grows beyond the largest number of
+ * players owed prizes at one time.
+ *
+ * Writes go to the operating system immediately, so they survive the server
+ * process crashing; the file is synced to disk when closed.
+ */
+public class PrizeLedger {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param file the ledger file.
+     */
+    public PrizeLedger(File file) {
+        _file = file;
+        resize(INITIAL_CAPACITY);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the ledger file exists.
+     *
+     * @return true if the ledger file exists.
+     */
+    public boolean exists() {
+        return _file.isFile();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the ledger file, creating it if necessary, and load all records.
+     *
+     * Any previously loaded state is discarded.
+     *
+     * A file in an unrecognised format is moved aside (with the suffix ".bad")
+     * and a new, empty ledger is started, so that it is never overwritten
+     * record by record. If the file cannot be opened or read, the ledger is
+     * left closed and changes are kept in memory only.
+     */
+    public void open() {
+        close();
+        resize(INITIAL_CAPACITY);
+        _size = 0;
+        _recordCount = 0;
+        _freeCount = 0;
+
+        try {
+            _file.getParentFile().mkdirs();
+            _channel = new RandomAccessFile(_file, "rw").getChannel();
+            long length = _channel.size();
+            if (length < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                _channel.truncate(0);
+                _channel.write(header, 0);
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (_channel.read(buffer, buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                _channel.close();
+                _channel = null;
+                File badFile = new File(_file.getPath() + ".bad");
+                Files.move(_file.toPath(), badFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                DragonFight.PLUGIN.getLogger().severe("Unrecognised prize ledger format. Moved " + _file +
+                                                      " to " + badFile + " and started a new ledger.");
+                open();
+                return;
+            }
+
+            // Ignore a partial record at the end.
+            while (buffer.remaining() >= RECORD_SIZE) {
+                long msb = buffer.getLong();
+                long lsb = buffer.getLong();
+                int count = buffer.getInt();
+                int record = _recordCount++;
+                if (count > 0) {
+                    put(msb, lsb, count, record);
+                } else {
+                    pushFreeRecord(record);
+                }
+            }
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not open " + _file, ex);
+            if (_channel != null) {
+                try {
+                    _channel.close();
+                } catch (IOException closeEx) {
+                    // Already reported the failure to open.
+                }
+                _channel = null;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sync and close the ledger file.
+     */
+    public void close() {
+        if (_channel != null) {
+            try {
+                _channel.force(true);
+                _channel.close();
+            } catch (IOException ex) {
+                DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not close " + _file, ex);
+            }
+            _channel = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of unclaimed prizes of the specified player.
+     *
+     * @param uuid the player's UUID.
+     * @return the number of unclaimed prizes.
+     */
+    public int get(UUID uuid) {
+        int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        return (slot < 0) ? 0 : _counts[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add to the number of unclaimed prizes of the specified player and write
+     * the player's record.
+     *
+     * @param uuid   the player's UUID.
+     * @param amount the amount to add (negative to subtract).
+     * @return the new number of unclaimed prizes, which is never negative.
+     */
+    public int add(UUID uuid, int amount) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int slot = find(msb, lsb);
+        int count = Math.max(0, ((slot < 0) ? 0 : _counts[slot]) + amount);
+
+        if (slot < 0) {
+            if (count > 0) {
+                int record = (_freeCount > 0) ? _freeRecords[--_freeCount] : _recordCount++;
+                put(msb, lsb, count, record);
+                writeRecord(record, msb, lsb, count);
+            }
+        } else if (count > 0) {
+            _counts[slot] = count;
+            writeRecord(_records[slot], msb, lsb, count);
+        } else {
+            int record = _records[slot];
+            removeSlot(slot);
+            writeRecord(record, 0, 0, 0);
+            pushFreeRecord(record);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all unclaimed prizes.
+     */
+    public void clear() {
+        for (int slot = 0; slot < _used.length; ++slot) {
+            if (_used[slot]) {
+                writeRecord(_records[slot], 0, 0, 0);
+                pushFreeRecord(_records[slot]);
+            }
+        }
+        Arrays.fill(_used, false);
+        _size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of players with unclaimed prizes.
+     *
+     * @return the number of players with unclaimed prizes.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of all unclaimed prize counts, keyed by player UUID.
+     *
+     * @return a new map from player UUID to the number of unclaimed prizes.
+     */
+    public Map<UUID, Integer> export() {
+        LinkedHashMap<UUID, Integer> prizes = new LinkedHashMap<>();
+        for (int slot = 0; slot < _used.length; ++slot) {
+            if (_used[slot]) {
+                prizes.put(new UUID(_msbs[slot], _lsbs[slot]), _counts[slot]);
+            }
+        }
+        return prizes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the table slot of the specified UUID, or -1 if not present.
+     *
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @return the slot, or -1.
+     */
+    protected int find(long msb, long lsb) {
+        int mask = _used.length - 1;
+        for (int slot = hash(msb, lsb) & mask; _used[slot]; slot = (slot + 1) & mask) {
+            if (_msbs[slot] == msb && _lsbs[slot] == lsb) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Insert a UUID that is not already present into the table, growing it if
+     * necessary.
+     *
+     * @param msb    the most significant bits of the UUID.
+     * @param lsb    the least significant bits of the UUID.
+     * @param count  the number of unclaimed prizes.
+     * @param record the index of the player's record in the file.
+     */
+    protected void put(long msb, long lsb, int count, int record) {
+        if (2 * (_size + 1) > _used.length) {
+            resize(2 * _used.length);
+        }
+
+        int mask = _used.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (_used[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        _used[slot] = true;
+        _msbs[slot] = msb;
+        _lsbs[slot] = lsb;
+        _counts[slot] = count;
+        _records[slot] = record;
+        ++_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the entry in the specified slot, shifting back later entries in
+     * the same probe sequence so that no tombstones are needed.
+     *
+     * @param slot the slot.
+     */
+    protected void removeSlot(int slot) {
+        int mask = _used.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (_used[next]) {
+            int home = hash(_msbs[next], _lsbs[next]) & mask;
+            // Move the entry into the hole if the hole lies cyclically
+            // between its home slot and its current slot.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                _msbs[hole] = _msbs[next];
+                _lsbs[hole] = _lsbs[next];
+                _counts[hole] = _counts[next];
+                _records[hole] = _records[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        _used[hole] = false;
+        --_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Resize the table to the specified capacity, reinserting all entries.
+     *
+     * @param capacity the new capacity; a power of two.
+     */
+    protected void resize(int capacity) {
+        boolean[] used = _used;
+        long[] msbs = _msbs;
+        long[] lsbs = _lsbs;
+        int[] counts = _counts;
+        int[] records = _records;
+
+        _used = new boolean[capacity];
+        _msbs = new long[capacity];
+        _lsbs = new long[capacity];
+        _counts = new int[capacity];
+        _records = new int[capacity];
+        _size = 0;
+        if (used != null) {
+            for (int slot = 0; slot < used.length; ++slot) {
+                if (used[slot]) {
+                    put(msbs[slot], lsbs[slot], counts[slot], records[slot]);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a record index to the stack of free records.
+     *
+     * @param record the record index.
+     */
+    protected void pushFreeRecord(int record) {
+        if (_freeCount == _freeRecords.length) {
+            _freeRecords = Arrays.copyOf(_freeRecords, 2 * _freeRecords.length);
+        }
+        _freeRecords[_freeCount++] = record;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a single record to the ledger file.
+     *
+     * @param record the record index.
+     * @param msb    the most significant bits of the UUID.
+     * @param lsb    the least significant bits of the UUID.
+     * @param count  the number of unclaimed prizes.
+     */
+    protected void writeRecord(int record, long msb, long lsb, int count) {
+        if (_channel == null) {
+            return;
+        }
+
+        _recordBuffer.clear();
+        _recordBuffer.putLong(msb).putLong(lsb).putInt(count).flip();
+        try {
+            long position = HEADER_SIZE + (long) record * RECORD_SIZE;
+            while (_recordBuffer.hasRemaining()) {
+                position += _channel.write(_recordBuffer, position);
+            }
+        } catch (IOException ex) {
+            DragonFight.PLUGIN.getLogger().log(Level.SEVERE, "Could not write " + _file, ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the hash of a UUID.
+     *
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @return the hash.
+     */
+    protected static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Magic number at the start of the file: "DFPL".
+     */
+    private static final int MAGIC = 0x4446504C;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the file header in bytes: magic and version.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of each record in bytes: UUID and count.
+     */
+    private static final int RECORD_SIZE = 20;
+
+    /**
+     * Initial capacity of the table; a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The ledger file.
+     */
+    protected final File _file;
+
+    /**
+     * The channel of the open ledger file, or null if not open.
+     */
+    protected FileChannel _channel;
+
+    /**
+     * Reused buffer for writing a single record.
+     */
+    protected final ByteBuffer _recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    /**
+     * True for occupied table slots.
+     */
+    protected boolean[] _used;
+
+    /**
+     * Most significant bits of the UUID in each slot.
+     */
+    protected long[] _msbs;
+
+    /**
+     * Least significant bits of the UUID in each slot.
+     */
+    protected long[] _lsbs;
+
+    /**
+     * Number of unclaimed prizes in each slot.
+     */
+    protected int[] _counts;
+
+    /**
+     * Index of the file record of each slot.
+     */
+    protected int[] _records;
+
+    /**
+     * Number of occupied slots.
+     */
+    protected int _size;
+
+    /**
+     * Number of records in the file, including free ones.
+     */
+    protected int _recordCount;
+
+    /**
+     * Stack of the indices of free (zeroed) records.
+     */
+    protected int[] _freeRecords = new int[16];
+
+    /**
+     * Number of entries in {@link #_freeRecords}.
+     */
+    protected int _freeCount;
+} // class PrizeLedger
@@ -0,0 +1,596 @@
+package nu.nerd.df;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import nu.nerd.beastmaster.Util;
+
+// ----------------------------------------------------------------------------
+/**
+ * A cache of the locations in an annulus around the arena centre where a boss
+ * can spawn, i.e. with a 3x3x3 volume of passable blocks.
+ *
+ * Each block column in the annulus has at most one spawn site: the first
+ * location above the local highest solid block near the arena floor that has
+ * a 3x3x3 passable volume, found the same way bosses were placed before
+ * caching. The cache is built by {@link #refreshAsync(World)}, which should be
+ * called as soon as the cache is known to be cold, e.g. after
+ * {@link #clear()} at the start of each fight. Until it completes,
+ * {@link #pick(World, float)} finds no sites, rather than scanning the whole
+ * annulus on the main thread.
+ *
+ * Block changes reported through {@link #invalidate(Block)} mark the columns
+ * that they could affect as dirty, and only those columns are recomputed on
+ * the next {@link #pick(World, float)}, provided there are at most
+ * {@link #MAX_SYNC_COLUMNS} of them; otherwise pick starts an asynchronous
+ * refresh and chooses from the sites already known. Since not every block change fires an
+ * event (e.g. pistons and fluids), each picked site is checked again before it
+ * is returned, and its column is recomputed if the check fails.
+ *
+ * Recomputing many columns, e.g. after the arena has been griefed, would scan
+ * a lot of blocks on the main thread, so {@link #refreshAsync(World)} can be
+ * used to recompute the dirty columns (or all of them) from ChunkSnapshots on
+ * an asynchronous worker. The results are applied on the main thread. The
+ * asynchronous search approximates Block.isPassable() with
+ * !Material.isSolid(); any disagreement is caught by the check on pick.
+ */
+public class SpawnSites {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param minRadius the minimum horizontal distance of a site from the
+     *                  world origin.
+     * @param maxRadius the maximum horizontal distance of a site from the
+     *                  world origin.
+     * @param originY   the Y coordinate of the arena floor, around which the
+     *                  highest solid block is searched for.
+     */
+    public SpawnSites(double minRadius, double maxRadius, int originY) {
+        _originY = originY;
+        _gridRadius = (int) Math.ceil(maxRadius);
+        int gridSize = 2 * _gridRadius + 1;
+        _columnAt = new int[gridSize * gridSize];
+        Arrays.fill(_columnAt, -1);
+
+        int count = 0;
+        int[] xs = new int[_columnAt.length];
+        int[] zs = new int[_columnAt.length];
+        for (int x = -_gridRadius; x <= _gridRadius; ++x) {
+            for (int z = -_gridRadius; z <= _gridRadius; ++z) {
+                double cx = x + 0.5;
+                double cz = z + 0.5;
+                double r = Math.sqrt(cx * cx + cz * cz);
+                if (r >= minRadius && r <= maxRadius) {
+                    _columnAt[getGridIndex(x, z)] = count;
+                    xs[count] = x;
+                    zs[count] = z;
+                    ++count;
+                }
+            }
+        }
+
+        _x = Arrays.copyOf(xs, count);
+        _z = Arrays.copyOf(zs, count);
+        _siteY = new int[count];
+        _dirty = new boolean[count];
+        _dirtyColumns = new int[count];
+        _valid = new int[count];
+        _validPos = new int[count];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all cached sites, and the results of any asynchronous refresh
+     * in progress.
+     *
+     * The sites must then be rebuilt with {@link #refreshAsync(World)}.
+     */
+    public void clear() {
+        _world = null;
+        _pending = null;
+        ++_generation;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the sites have been computed for the specified world,
+     * even if some columns are dirty.
+     *
+     * @param world the fight world.
+     * @return true if {@link #pick(World, float)} can return a site.
+     */
+    public boolean isBuilt(World world) {
+        return world == _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the sites are up to date for the specified world, or only
+     * a few dirty columns need to be recomputed, and no asynchronous refresh is
+     * in progress.
+     *
+     * @param world the fight world.
+     * @return true if a site can be picked without a full rebuild.
+     */
+    public boolean isReady(World world) {
+        return world == _world && _pending == null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute the dirty columns, or all columns if the cache has been
+     * cleared, from ChunkSnapshots on an asynchronous worker.
+     *
+     * This method must be called from the main thread. The returned future is
+     * completed on the main thread once the results have been applied. If a
+     * refresh is already in progress, its future is returned.
+     *
+     * @param world the fight world.
+     * @return a future that completes when the sites are up to date.
+     */
+    public CompletableFuture<Void> refreshAsync(World world) {
+        if (_pending != null) {
+            return _pending;
+        }
+
+        int[] columns;
+        boolean full = (world != _world);
+        if (full) {
+            columns = new int[_x.length];
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i] = i;
+            }
+        } else if (_dirtyCount == 0) {
+            return CompletableFuture.completedFuture(null);
+        } else {
+            columns = Arrays.copyOf(_dirtyColumns, _dirtyCount);
+            for (int column : columns) {
+                _dirty[column] = false;
+            }
+            _dirtyCount = 0;
+        }
+
+        // Snapshot every chunk that the search could look at, including the
+        // neighbours of the edge columns.
+        int chunkMin = (-_gridRadius - 1) >> 4;
+        int chunkMax = (_gridRadius + 1) >> 4;
+        int chunksAcross = chunkMax - chunkMin + 1;
+        ChunkSnapshot[] snapshots = new ChunkSnapshot[chunksAcross * chunksAcross];
+        for (int cx = chunkMin; cx <= chunkMax; ++cx) {
+            for (int cz = chunkMin; cz <= chunkMax; ++cz) {
+                snapshots[(cx - chunkMin) * chunksAcross + (cz - chunkMin)] = world.getChunkAt(cx, cz).getChunkSnapshot();
+            }
+        }
+
+        int[] xs = new int[columns.length];
+        int[] zs = new int[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            xs[i] = _x[columns[i]];
+            zs[i] = _z[columns[i]];
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        _pending = future;
+        int generation = _generation;
+        int originY = _originY;
+        long start = System.nanoTime();
+        Bukkit.getScheduler().runTaskAsynchronously(DragonFight.PLUGIN, () -> {
+            int[] ys = new int[columns.length];
+            for (int i = 0; i < columns.length; ++i) {
+                ys[i] = findSiteY(snapshots, chunkMin, chunksAcross, originY, xs[i], zs[i]);
+            }
+
+            Bukkit.getScheduler().runTask(DragonFight.PLUGIN, () -> {
+                // Discard the results if the cache was cleared in the
+                // meantime.
+                if (generation == _generation) {
+                    if (full) {
+                        reset(world);
+                    }
+                    for (int i = 0; i < columns.length; ++i) {
+                        setSiteY(columns[i], ys[i]);
+                    }
+                    FightState.debug("Searched " + columns.length + " boss spawn columns asynchronously in " +
+                                     (System.nanoTime() - start) / 1000000 + " ms; " + _validCount + " sites.");
+                }
+                if (_pending == future) {
+                    _pending = null;
+                }
+                future.complete(null);
+            });
+        });
+        return future;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the columns whose spawn sites could be affected by a change to the
+     * specified block as needing recomputation.
+     *
+     * @param block the block that changed.
+     */
+    public void invalidate(Block block) {
+        if (_world == null || block.getWorld() != _world) {
+            return;
+        }
+
+        int y = block.getY();
+        if (y < _originY - SEARCH_DOWN - 1 || y > _originY + SEARCH_UP + MAX_CLEARANCE + 2) {
+            return;
+        }
+
+        int bx = block.getX();
+        int bz = block.getZ();
+        for (int x = bx - 1; x <= bx + 1; ++x) {
+            for (int z = bz - 1; z <= bz + 1; ++z) {
+                int column = getColumn(x, z);
+                if (column >= 0 && !_dirty[column]) {
+                    _dirty[column] = true;
+                    _dirtyColumns[_dirtyCount++] = column;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a randomly chosen spawn site, or null if there are none.
+     *
+     * If the sites have not been built for the specified world (see
+     * {@link #isBuilt(World)}), no site is returned; a full scan is too slow
+     * to do on the main thread. Likewise, at most {@link #MAX_SYNC_COLUMNS}
+     * columns are recomputed on the main thread per pick, whether dirty or
+     * found to be stale when checked; if that is not enough to find a valid
+     * site, null is returned.
+     *
+     * @param world the fight world.
+     * @param yaw   the yaw of the returned location.
+     * @return a new Location at the bottom centre of the 3x3x3 volume, or
+     *         null if there are no spawn sites or they are not yet built.
+     */
+    public Location pick(World world, float yaw) {
+        if (world != _world) {
+            return null;
+        }
+
+        if (_dirtyCount > MAX_SYNC_COLUMNS) {
+            // Too many to scan on the main thread. Known sites are re-checked
+            // below, so stale ones are never returned.
+            refreshAsync(world);
+        } else {
+            while (_dirtyCount > 0) {
+                int column = _dirtyColumns[--_dirtyCount];
+                _dirty[column] = false;
+                update(column);
+            }
+        }
+
+        for (int updates = 0; _validCount > 0 && updates < MAX_SYNC_COLUMNS; ++updates) {
+            int column = _valid[Util.randomInt(_validCount)];
+            Location loc = new Location(world, _x[column] + 0.5, _siteY[column], _z[column] + 0.5, yaw, 0f);
+            if (Util.isPassable3x3x3(loc)) {
+                return loc;
+            }
+
+            // An unreported block change. The recomputed site, if any, is
+            // valid, so this loop normally ends on the next iteration.
+            update(column);
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of columns that currently have a spawn site.
+     *
+     * @return the number of spawn sites.
+     */
+    public int size() {
+        return _validCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Empty the cache in preparation for computing all columns in the
+     * specified world.
+     *
+     * @param world the world.
+     */
+    protected void reset(World world) {
+        _world = world;
+        ++_generation;
+        _validCount = 0;
+        Arrays.fill(_validPos, -1);
+        Arrays.fill(_dirty, false);
+        _dirtyCount = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute the spawn site of a column from the world.
+     *
+     * @param column the column index.
+     */
+    protected void update(int column) {
+        setSiteY(column, findSiteY(_x[column], _z[column]));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the spawn site of a column and add it to or remove it from the list
+     * of valid columns.
+     *
+     * @param column the column index.
+     * @param y      the Y coordinate of the site, or NO_SITE.
+     */
+    protected void setSiteY(int column, int y) {
+        _siteY[column] = y;
+        if (y == NO_SITE) {
+            int pos = _validPos[column];
+            if (pos >= 0) {
+                int last = _valid[--_validCount];
+                _valid[pos] = last;
+                _validPos[last] = pos;
+                _validPos[column] = -1;
+            }
+        } else if (_validPos[column] < 0) {
+            _valid[_validCount] = column;
+            _validPos[column] = _validCount++;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the spawn site in the specified column, or
+     * NO_SITE if there isn't one.
+     *
+     * @param x the block X coordinate.
+     * @param z the block Z coordinate.
+     * @return the Y coordinate of the site, or NO_SITE.
+     */
+    protected int findSiteY(int x, int z) {
+        // Find local highest block to stand on.
+        int y = _originY - SEARCH_DOWN;
+        for (int i = SEARCH_UP; i >= -SEARCH_DOWN; --i) {
+            if (!_world.getBlockAt(x, _originY + i, z).isPassable()) {
+                y = _originY + i;
+                break;
+            }
+        }
+
+        // Now go up to find space.
+        Location loc = new Location(_world, x + 0.5, y, z + 0.5);
+        for (int i = 1; i <= MAX_CLEARANCE; ++i) {
+            loc.setY(y + i);
+            if (Util.isPassable3x3x3(loc)) {
+                return y + i;
+            }
+        }
+        return NO_SITE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the spawn site in the specified column, or
+     * NO_SITE if there isn't one, searching ChunkSnapshots.
+     *
+     * This method is called on an asynchronous worker and must only access its
+     * arguments.
+     *
+     * @param snapshots    snapshots of the chunks around the annulus.
+     * @param chunkMin     the minimum chunk X and Z coordinate of the
+     *                     snapshots.
+     * @param chunksAcross the number of snapshots along each axis.
+     * @param originY      the Y coordinate of the arena floor.
+     * @param x            the block X coordinate.
+     * @param z            the block Z coordinate.
+     * @return the Y coordinate of the site, or NO_SITE.
+     */
+    protected static int findSiteY(ChunkSnapshot[] snapshots, int chunkMin, int chunksAcross,
+                                   int originY, int x, int z) {
+        int y = originY - SEARCH_DOWN;
+        for (int i = SEARCH_UP; i >= -SEARCH_DOWN; --i) {
+            if (!isPassable(snapshots, chunkMin, chunksAcross, x, originY + i, z)) {
+                y = originY + i;
+                break;
+            }
+        }
+
+        for (int i = 1; i <= MAX_CLEARANCE; ++i) {
+            if (isPassable3x3x3(snapshots, chunkMin, chunksAcross, x, y + i, z)) {
+                return y + i;
+            }
+        }
+        return NO_SITE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the 3x3x3 volume centred on the specified block is
+     * passable, according to ChunkSnapshots.
+     *
+     * @param snapshots    snapshots of the chunks around the annulus.
+     * @param chunkMin     the minimum chunk X and Z coordinate of the
+     *                     snapshots.
+     * @param chunksAcross the number of snapshots along each axis.
+     * @param x            the block X coordinate.
+     * @param y            the block Y coordinate.
+     * @param z            the block Z coordinate.
+     * @return true if all 27 blocks are passable.
+     */
+    protected static boolean isPassable3x3x3(ChunkSnapshot[] snapshots, int chunkMin, int chunksAcross,
+                                             int x, int y, int z) {
+        for (int dx = -1; dx <= 1; ++dx) {
+            for (int dz = -1; dz <= 1; ++dz) {
+                for (int dy = -1; dy <= 1; ++dy) {
+                    if (!isPassable(snapshots, chunkMin, chunksAcross, x + dx, y + dy, z + dz)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified block is passable, according to
+     * ChunkSnapshots.
+     *
+     * @param snapshots    snapshots of the chunks around the annulus.
+     * @param chunkMin     the minimum chunk X and Z coordinate of the
+     *                     snapshots.
+     * @param chunksAcross the number of snapshots along each axis.
+     * @param x            the block X coordinate.
+     * @param y            the block Y coordinate.
+     * @param z            the block Z coordinate.
+     * @return true if the block is passable.
+     */
+    protected static boolean isPassable(ChunkSnapshot[] snapshots, int chunkMin, int chunksAcross,
+                                        int x, int y, int z) {
+        ChunkSnapshot snapshot = snapshots[((x >> 4) - chunkMin) * chunksAcross + ((z >> 4) - chunkMin)];
+        return !snapshot.getBlockType(x & 15, y, z & 15).isSolid();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the column index at the specified block coordinates, or -1 if not
+     * in the annulus.
+     *
+     * @param x the block X coordinate.
+     * @param z the block Z coordinate.
+     * @return the column index, or -1.
+     */
+    protected int getColumn(int x, int z) {
+        if (x < -_gridRadius || x > _gridRadius || z < -_gridRadius || z > _gridRadius) {
+            return -1;
+        }
+        return _columnAt[getGridIndex(x, z)];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index into {@link #_columnAt} of the specified block
+     * coordinates, which must be within the grid.
+     *
+     * @param x the block X coordinate.
+     * @param z the block Z coordinate.
+     * @return the grid index.
+     */
+    protected int getGridIndex(int x, int z) {
+        return (x + _gridRadius) * (2 * _gridRadius + 1) + (z + _gridRadius);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Value of {@link #_siteY} for columns without a spawn site.
+     */
+    private static final int NO_SITE = Integer.MIN_VALUE;
+
+    /**
+     * Maximum number of dirty columns that {@link #pick(World, float)}
+     * recomputes on the main thread.
+     */
+    private static final int MAX_SYNC_COLUMNS = 16;
+
+    /**
+     * Number of blocks above the arena floor to start searching down for the
+     * highest solid block.
+     */
+    private static final int SEARCH_UP = 5;
+
+    /**
+     * Number of blocks below the arena floor to search down for the highest
+     * solid block.
+     */
+    private static final int SEARCH_DOWN = 5;
+
+    /**
+     * Maximum number of blocks above the highest solid block to search for a
+     * 3x3x3 passable volume.
+     */
+    private static final int MAX_CLEARANCE = 9;
+
+    /**
+     * Y coordinate of the arena floor.
+     */
+    protected final int _originY;
+
+    /**
+     * Maximum absolute X or Z coordinate of a column.
+     */
+    protected final int _gridRadius;
+
+    /**
+     * Map from grid index to column index, or -1 outside the annulus.
+     */
+    protected final int[] _columnAt;
+
+    /**
+     * Block X coordinate of each column.
+     */
+    protected final int[] _x;
+
+    /**
+     * Block Z coordinate of each column.
+     */
+    protected final int[] _z;
+
+    /**
+     * Y coordinate of the spawn site in each column, or NO_SITE.
+     */
+    protected final int[] _siteY;
+
+    /**
+     * True for columns that need to be recomputed.
+     */
+    protected final boolean[] _dirty;
+
+    /**
+     * Indices of the columns that need to be recomputed.
+     */
+    protected final int[] _dirtyColumns;
+
+    /**
+     * Number of entries in {@link #_dirtyColumns}.
+     */
+    protected int _dirtyCount;
+
+    /**
+     * Indices of columns with a spawn site, in arbitrary order.
+     */
+    protected final int[] _valid;
+
+    /**
+     * Position of each column in {@link #_valid}, or -1 if not present.
+     */
+    protected final int[] _validPos;
+
+    /**
+     * Number of entries in {@link #_valid}.
+     */
+    protected int _validCount;
+
+    /**
+     * The world the sites were computed for, or null if they must be rebuilt.
+     */
+    protected World _world;
+
+    /**
+     * Incremented whenever the cache is cleared or rebuilt, so that the
+     * results of an asynchronous refresh started before then are discarded.
+     */
+    protected int _generation;
+
+    /**
+     * The future of the asynchronous refresh in progress, or null if none.
+     */
+    protected CompletableFuture<Void> _pending;
+} // class SpawnSites
@@ -0,0 +1,135 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.entity.EnderCrystal;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tracks the (up to) four end crystals placed on the end portal frame to
+ * summon the dragon.
+ *
+ * Each of the four crystal positions - on the bedrock blocks 3 blocks north,
+ * south, east and west of the centre of the portal - has a slot that holds the
+ * crystal placed there, if any. Slots are filled when the crystals spawn and
+ * emptied when the crystals are removed. Since Spigot does not tell plugins
+ * when an entity is removed, slots holding crystals that are no longer valid
+ * are also emptied whenever the slots are counted.
+ *
+ * All operations take constant time and never access chunks or blocks.
+ */
+public class SpawningCrystals {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the slot index of the dragon-spawning crystal position at the
+     * specified block coordinates, or -1 if the coordinates are not those of
+     * the block under a dragon-spawning crystal.
+     *
+     * Only the X and Z coordinates are considered; the caller is responsible
+     * for checking that the block is bedrock at the right height, if
+     * necessary.
+     *
+     * @param blockX the X coordinate of the block under the crystal.
+     * @param blockZ the Z coordinate of the block under the crystal.
+     * @return the slot index, from 0 to 3, or -1 if not a crystal position.
+     */
+    public static int getSlot(int blockX, int blockZ) {
+        if (blockZ == 0) {
+            return (blockX == 3) ? 0 : (blockX == -3) ? 1 : -1;
+        } else if (blockX == 0) {
+            return (blockZ == 3) ? 2 : (blockZ == -3) ? 3 : -1;
+        } else {
+            return -1;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Put the specified crystal in the slot corresponding to its location.
+     *
+     * @param crystal the crystal.
+     * @return true if the crystal is at a dragon-spawning crystal position.
+     */
+    public boolean add(EnderCrystal crystal) {
+        Location loc = crystal.getLocation();
+        int slot = getSlot(loc.getBlockX(), loc.getBlockZ());
+        if (slot < 0) {
+            return false;
+        }
+        _slots[slot] = crystal;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Empty the slot holding the specified entity, if any.
+     *
+     * @param entity the entity.
+     * @return true if the entity was in a slot.
+     */
+    public boolean remove(Entity entity) {
+        for (int i = 0; i < _slots.length; ++i) {
+            if (_slots[i] == entity) {
+                _slots[i] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of dragon-spawning crystals currently in the world.
+     *
+     * @return the number of dragon-spawning crystals, from 0 to 4.
+     */
+    public int count() {
+        int count = 0;
+        for (int i = 0; i < _slots.length; ++i) {
+            if (_slots[i] != null) {
+                if (_slots[i].isValid()) {
+                    ++count;
+                } else {
+                    _slots[i] = null;
+                }
+            }
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a list of the dragon-spawning crystals currently in the world.
+     *
+     * @return a new list of (0 to 4) crystals.
+     */
+    public List<EnderCrystal> getCrystals() {
+        ArrayList<EnderCrystal> crystals = new ArrayList<>(_slots.length);
+        count();
+        for (EnderCrystal crystal : _slots) {
+            if (crystal != null) {
+                crystals.add(crystal);
+            }
+        }
+        return crystals;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Empty all slots.
+     */
+    public void clear() {
+        for (int i = 0; i < _slots.length; ++i) {
+            _slots[i] = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The crystal in each of the four slots, or null if the slot is empty.
+     */
+    protected EnderCrystal[] _slots = new EnderCrystal[4];
+} // class SpawningCrystals
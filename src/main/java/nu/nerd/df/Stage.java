@@ -2,6 +2,7 @@ package nu.nerd.df;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Supplier;
 
 import org.bukkit.Bukkit;
@@ -12,9 +13,6 @@ import org.bukkit.boss.BarColor;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 
-import nu.nerd.beastmaster.BeastMaster;
-import nu.nerd.beastmaster.DropSet;
-
 // ----------------------------------------------------------------------------
 /**
  * Holds the configuration for one fight stage.
@@ -36,60 +34,6 @@ public class Stage {
         return "df-stage" + stageNumber;
     }
 
-    // ------------------------------------------------------------------------
-    /**
-     * Swap the contents of two stages.
-     *
-     * The Stage instances are intended to stay at the same indicies, so the
-     * stage number doesn't change. Only the properties that determine the
-     * appearance of the stage, and the contents of the DropSets swap.
-     *
-     * @param a a stage.
-     * @param b another stage.
-     */
-    public static void swap(Stage a, Stage b) {
-        // Get the old drops (dropset name from stage number).
-        DropSet aOldDrops = BeastMaster.LOOTS.getDropSet(a.getDropSetId());
-        if (aOldDrops == null) {
-            aOldDrops = new DropSet(a.getDropSetId());
-        }
-        DropSet bOldDrops = BeastMaster.LOOTS.getDropSet(b.getDropSetId());
-        if (bOldDrops == null) {
-            bOldDrops = new DropSet(b.getDropSetId());
-        }
-
-        // New drop sets to be registered using new IDs but other's drops.
-        DropSet aNewDrops = new DropSet(a.getDropSetId(), bOldDrops);
-        DropSet bNewDrops = new DropSet(b.getDropSetId(), aOldDrops);
-        BeastMaster.LOOTS.addDropSet(aNewDrops);
-        BeastMaster.LOOTS.addDropSet(bNewDrops);
-        // Don't save drops yet, since we may be shuffling all 10 stages.
-
-        BarColor tmpBarColor = a._barColor;
-        a._barColor = b._barColor;
-        b._barColor = tmpBarColor;
-
-        String tmpTitle = a._title;
-        a._title = b._title;
-        b._title = tmpTitle;
-
-        String tmpSubtitle = a._subtitle;
-        a._subtitle = b._subtitle;
-        b._subtitle = tmpSubtitle;
-
-        String tmpMessage = a._message;
-        a._message = b._message;
-        b._message = tmpMessage;
-
-        String tmpCommand = a._stageCommand;
-        a._stageCommand = b._stageCommand;
-        b._stageCommand = tmpCommand;
-
-        String tmpPlayerCommand = a._playerCommand;
-        a._playerCommand = b._playerCommand;
-        b._playerCommand = tmpPlayerCommand;
-    }
-
     // ------------------------------------------------------------------------
     /**
      * Constructor.
@@ -151,10 +95,42 @@ public class Stage {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the properties that determine the appearance of another stage into
+     * this one.
+     *
+     * The stage number doesn't change. Only fields whose values differ are
+     * marked as changed.
+     *
+     * @param other the stage to copy.
+     */
+    public void copyFrom(Stage other) {
+        setBarColor(other._barColor);
+        setTitle(other._title);
+        setSubtitle(other._subtitle);
+        setMessage(other._message);
+        setPlayerCommand(other._playerCommand);
+        setStageCommand(other._stageCommand);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this Stage has changes that have not been saved.
+     *
+     * @return true if this Stage has changes that have not been saved.
+     */
+    public boolean isDirty() {
+        return _dirtyFields != 0;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Load this Stage from the specified configuration section.
      *
+     * All fields are considered changed after loading, so that the next save
+     * writes defaults for any that were missing.
+     *
      * @param section the section.
      */
     public void load(ConfigurationSection section) {
@@ -169,21 +145,36 @@ public class Stage {
         _message = section.getString("message", "");
         _playerCommand = section.getString("player-command", "");
         _stageCommand = section.getString("stage-command", "");
+        _dirtyFields = ALL_FIELDS;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Save this Stage to the specified configuration section.
+     * Save the fields of this Stage that have changed since the last save to
+     * the specified configuration section.
      *
      * @param section the section.
      */
     public void save(ConfigurationSection section) {
-        section.set("barcolor", _barColor.toString());
-        section.set("title", _title);
-        section.set("subtitle", _subtitle);
-        section.set("message", _message);
-        section.set("player-command", _playerCommand);
-        section.set("stage-command", _stageCommand);
+        if ((_dirtyFields & BAR_COLOR) != 0) {
+            section.set("barcolor", _barColor.toString());
+        }
+        if ((_dirtyFields & TITLE) != 0) {
+            section.set("title", _title);
+        }
+        if ((_dirtyFields & SUBTITLE) != 0) {
+            section.set("subtitle", _subtitle);
+        }
+        if ((_dirtyFields & MESSAGE) != 0) {
+            section.set("message", _message);
+        }
+        if ((_dirtyFields & PLAYER_COMMAND) != 0) {
+            section.set("player-command", _playerCommand);
+        }
+        if ((_dirtyFields & STAGE_COMMAND) != 0) {
+            section.set("stage-command", _stageCommand);
+        }
+        _dirtyFields = 0;
     }
 
     // ------------------------------------------------------------------------
@@ -193,7 +184,10 @@ public class Stage {
      * @param barColor the BarColor.
      */
     public void setBarColor(BarColor barColor) {
-        _barColor = barColor;
+        if (barColor != _barColor) {
+            _barColor = barColor;
+            _dirtyFields |= BAR_COLOR;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -213,7 +207,10 @@ public class Stage {
      * @param title the title.
      */
     public void setTitle(String title) {
-        _title = title;
+        if (!Objects.equals(title, _title)) {
+            _title = title;
+            _dirtyFields |= TITLE;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -233,7 +230,10 @@ public class Stage {
      * @param subtitle the subtitle.
      */
     public void setSubtitle(String subtitle) {
-        _subtitle = subtitle;
+        if (!Objects.equals(subtitle, _subtitle)) {
+            _subtitle = subtitle;
+            _dirtyFields |= SUBTITLE;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -253,7 +253,10 @@ public class Stage {
      * @param message the message.
      */
     public void setMessage(String message) {
-        _message = message;
+        if (!Objects.equals(message, _message)) {
+            _message = message;
+            _dirtyFields |= MESSAGE;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -276,7 +279,11 @@ public class Stage {
      * @param command the command.
      */
     public void setPlayerCommand(String playerCommand) {
-        _playerCommand = playerCommand.startsWith("/") ? playerCommand.substring(1) : playerCommand;
+        playerCommand = playerCommand.startsWith("/") ? playerCommand.substring(1) : playerCommand;
+        if (!playerCommand.equals(_playerCommand)) {
+            _playerCommand = playerCommand;
+            _dirtyFields |= PLAYER_COMMAND;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -298,7 +305,11 @@ public class Stage {
      * @param stageCommand the command.
      */
     public void setStageCommand(String stageCommand) {
-        _stageCommand = stageCommand.startsWith("/") ? stageCommand.substring(1) : stageCommand;
+        stageCommand = stageCommand.startsWith("/") ? stageCommand.substring(1) : stageCommand;
+        if (!stageCommand.equals(_stageCommand)) {
+            _stageCommand = stageCommand;
+            _dirtyFields |= STAGE_COMMAND;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -337,6 +348,41 @@ public class Stage {
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * Bit in _dirtyFields: the bar colour has changed.
+     */
+    private static final int BAR_COLOR = 1 << 0;
+
+    /**
+     * Bit in _dirtyFields: the title has changed.
+     */
+    private static final int TITLE = 1 << 1;
+
+    /**
+     * Bit in _dirtyFields: the subtitle has changed.
+     */
+    private static final int SUBTITLE = 1 << 2;
+
+    /**
+     * Bit in _dirtyFields: the message has changed.
+     */
+    private static final int MESSAGE = 1 << 3;
+
+    /**
+     * Bit in _dirtyFields: the per-player command has changed.
+     */
+    private static final int PLAYER_COMMAND = 1 << 4;
+
+    /**
+     * Bit in _dirtyFields: the stage command has changed.
+     */
+    private static final int STAGE_COMMAND = 1 << 5;
+
+    /**
+     * All bits in _dirtyFields.
+     */
+    private static final int ALL_FIELDS = (1 << 6) - 1;
+
     /**
      * The stage number from 1 to 10.
      */
@@ -372,4 +418,9 @@ public class Stage {
      */
     protected String _stageCommand = "";
 
+    /**
+     * Bit set of the fields that have changed since the last save.
+     */
+    protected int _dirtyFields = ALL_FIELDS;
+
 } // class Stage
\ No newline at end of file
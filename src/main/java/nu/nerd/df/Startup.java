@@ -0,0 +1,191 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// ----------------------------------------------------------------------------
+/**
+ * Times the phases of plugin startup and tracks whether the plugin is ready,
+ * i.e. whether the fight state has been recovered and is consistent.
+ *
+ * Phases are recorded in the order they finish, with their durations. The
+ * time to ready is measured from {@link #begin()} (the start of
+ * {@link DragonFight#onEnable()}) to {@link #ready()}.
+ */
+public class Startup {
+    // ------------------------------------------------------------------------
+    /**
+     * The duration of one phase of startup.
+     */
+    public static final class Phase {
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param name          the name of the phase.
+         * @param durationNanos the duration of the phase in nanoseconds.
+         */
+        Phase(String name, long durationNanos) {
+            _name = name;
+            _durationNanos = durationNanos;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the name of the phase.
+         *
+         * @return the name of the phase.
+         */
+        public String getName() {
+            return _name;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the duration of the phase in milliseconds.
+         *
+         * @return the duration of the phase in milliseconds.
+         */
+        public double getDurationMillis() {
+            return _durationNanos / 1e6;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * The name of the phase.
+         */
+        private final String _name;
+
+        /**
+         * The duration of the phase in nanoseconds.
+         */
+        private final long _durationNanos;
+    } // class Phase
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start timing startup, discarding the phases of any previous startup.
+     */
+    public void begin() {
+        _beginNanos = System.nanoTime();
+        _readyNanos = 0;
+        _ready = false;
+        _phases.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a phase that started at the specified time and finished now.
+     *
+     * @param name       the name of the phase.
+     * @param startNanos the value of System.nanoTime() when the phase started.
+     */
+    public void record(String name, long startNanos) {
+        _phases.add(new Phase(name, System.nanoTime() - startNanos));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run an action and record its duration as a phase.
+     *
+     * @param name   the name of the phase.
+     * @param action the action.
+     */
+    public void time(String name, Runnable action) {
+        long start = System.nanoTime();
+        action.run();
+        record(name, start);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that the plugin is ready and log the time taken.
+     */
+    public void ready() {
+        if (_ready) {
+            return;
+        }
+        _ready = true;
+        _readyNanos = System.nanoTime();
+
+        Phase slowest = getSlowestPhase();
+        FightState.log(String.format("DragonFight %s ready after %.1f ms.%s",
+                                     DragonFight.PLUGIN.getDescription().getVersion(),
+                                     getTimeToReadyMillis(),
+                                     (slowest == null) ? ""
+                                                       : String.format(" Slowest phase: %s (%.1f ms).",
+                                                                       slowest.getName(), slowest.getDurationMillis())));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the plugin is ready.
+     *
+     * Until then, the fight state is still being recovered and may be
+     * incomplete.
+     *
+     * @return true if the plugin is ready.
+     */
+    public boolean isReady() {
+        return _ready;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time from the start of startup until the plugin was ready,
+     * or until now if it is not yet ready.
+     *
+     * @return the time in milliseconds.
+     */
+    public double getTimeToReadyMillis() {
+        return ((_ready ? _readyNanos : System.nanoTime()) - _beginNanos) / 1e6;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the recorded phases in the order they finished.
+     *
+     * @return an unmodifiable view of the phases.
+     */
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(_phases);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the phase that took the longest.
+     *
+     * @return the slowest phase, or null if no phases have been recorded.
+     */
+    public Phase getSlowestPhase() {
+        Phase slowest = null;
+        for (Phase phase : _phases) {
+            if (slowest == null || phase._durationNanos > slowest._durationNanos) {
+                slowest = phase;
+            }
+        }
+        return slowest;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Value of System.nanoTime() when startup began.
+     */
+    protected long _beginNanos;
+
+    /**
+     * Value of System.nanoTime() when the plugin became ready.
+     */
+    protected long _readyNanos;
+
+    /**
+     * True if the plugin is ready.
+     */
+    protected boolean _ready;
+
+    /**
+     * The recorded phases, in the order they finished.
+     */
+    protected ArrayList<Phase> _phases = new ArrayList<>();
+} // class Startup
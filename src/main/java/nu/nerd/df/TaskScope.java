@@ -0,0 +1,156 @@
+package nu.nerd.df;
+
+import java.util.HashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * A group of scheduled sync tasks that share a lifetime, such as those of the
+ * plugin, the current fight or a stage transition.
+ *
+ * Tasks are scheduled through the scope, which keeps track of those that are
+ * still pending. Delayed tasks leave the scope when they run; repeating tasks
+ * stay until cancelled. When the scope ends, {@link #cancelAll()} cancels just
+ * its own pending tasks, so that no work leaks past the end of the fight or
+ * transition that scheduled it.
+ *
+ * Each call to {@link #cancelAll()} starts a new generation of the scope, so
+ * that work queued elsewhere on behalf of the scope (see
+ * {@link DeferredActions}) can tell whether the scope has ended since.
+ */
+public class TaskScope {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param name the name of the scope, for reporting.
+     */
+    public TaskScope(String name) {
+        _name = name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the scope.
+     *
+     * @return the name of the scope.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the generation of the scope, which increases each time all of its
+     * tasks are cancelled.
+     *
+     * @return the generation.
+     */
+    public int getGeneration() {
+        return _generation;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of pending tasks in this scope.
+     *
+     * @return the number of pending tasks.
+     */
+    public int size() {
+        return _tasks.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task on the next tick.
+     *
+     * @param task the task.
+     * @return the scheduled task.
+     */
+    public BukkitTask runTask(Runnable task) {
+        return runTaskLater(task, 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task after a delay.
+     *
+     * @param task  the task.
+     * @param delay the delay in ticks.
+     * @return the scheduled task.
+     */
+    public BukkitTask runTaskLater(Runnable task, long delay) {
+        // The task ID is only known once scheduled, so the wrapper looks up
+        // its own BukkitTask through a holder.
+        BukkitTask[] holder = new BukkitTask[1];
+        BukkitTask scheduled = Bukkit.getScheduler().runTaskLater(DragonFight.PLUGIN, () -> {
+            _tasks.remove(holder[0].getTaskId());
+            task.run();
+        }, delay);
+        holder[0] = scheduled;
+        _tasks.put(scheduled.getTaskId(), scheduled);
+        return scheduled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task repeatedly until it is cancelled.
+     *
+     * @param task   the task.
+     * @param delay  the delay in ticks before the first run.
+     * @param period the period in ticks between runs.
+     * @return the scheduled task.
+     */
+    public BukkitTask runTaskTimer(Runnable task, long delay, long period) {
+        BukkitTask scheduled = Bukkit.getScheduler().runTaskTimer(DragonFight.PLUGIN, task, delay, period);
+        _tasks.put(scheduled.getTaskId(), scheduled);
+        return scheduled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel a task in this scope.
+     *
+     * @param task the task; null is ignored.
+     */
+    public void cancel(BukkitTask task) {
+        if (task != null) {
+            task.cancel();
+            _tasks.remove(task.getTaskId());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel all pending tasks in this scope.
+     *
+     * @return the number of tasks cancelled.
+     */
+    public int cancelAll() {
+        int count = _tasks.size();
+        for (BukkitTask task : _tasks.values()) {
+            task.cancel();
+        }
+        _tasks.clear();
+        ++_generation;
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The name of the scope.
+     */
+    protected final String _name;
+
+    /**
+     * Map from task ID to pending task.
+     */
+    protected final HashMap<Integer, BukkitTask> _tasks = new HashMap<>();
+
+    /**
+     * The number of times all tasks have been cancelled.
+     */
+    protected int _generation;
+} // class TaskScope
@@ -0,0 +1,303 @@
+package nu.nerd.df;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * A sequence of timed actions (cues) driven by a single repeating task.
+ *
+ * Cues are added with the tick, relative to the start of the timeline, when
+ * they should run, and are kept sorted by tick; cues on the same tick run in
+ * the order they were added. Once started, the timeline runs every tick,
+ * advancing its elapsed tick count and running all cues that have become due,
+ * until the last cue has run.
+ *
+ * The driving task belongs to a {@link TaskScope}, so that ending the scope
+ * also stops the timeline.
+ *
+ * A timeline can be paused, resumed and cancelled as a unit. Its progress is
+ * described by its elapsed tick count, and {@link #start(int)} skips the cues
+ * due at or before a given tick. Resuming is only faithful if the caller
+ * rebuilds exactly the same cues at the same ticks, so any randomness in the
+ * cue schedule must come from saved state (e.g. a saved random seed); cues
+ * that only become due on a different tick may otherwise be skipped or run
+ * twice.
+ */
+public class Timeline {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param name  the name of the timeline, for logging.
+     * @param scope the scope that owns the task that drives the timeline.
+     */
+    public Timeline(String name, TaskScope scope) {
+        _name = name;
+        _scope = scope;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a cue.
+     *
+     * Cues must be added before the timeline is started.
+     *
+     * @param tick   the tick, relative to the start of the timeline, when the
+     *               cue runs.
+     * @param name   the name of the cue, for inspection.
+     * @param action the action to run.
+     * @return this timeline.
+     */
+    public Timeline at(int tick, String name, Runnable action) {
+        if (_task != null) {
+            throw new IllegalStateException("cannot add cues to a started timeline");
+        }
+
+        // Insert after all cues at or before the same tick.
+        int index = _cues.size();
+        while (index > 0 && _cues.get(index - 1)._tick > tick) {
+            --index;
+        }
+        _cues.add(index, new Cue(tick, name, action));
+        return this;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the timeline from the beginning.
+     */
+    public void start() {
+        start(0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the timeline part way through.
+     *
+     * Cues due at or before the specified tick are skipped, except that cues
+     * due at tick 0 run when starting from the beginning.
+     *
+     * @param elapsedTicks the number of ticks that have already elapsed.
+     */
+    public void start(int elapsedTicks) {
+        if (_task != null) {
+            throw new IllegalStateException("timeline " + _name + " already started");
+        }
+
+        _elapsedTicks = elapsedTicks;
+        _nextCue = 0;
+        if (elapsedTicks > 0) {
+            while (_nextCue < _cues.size() && _cues.get(_nextCue)._tick <= elapsedTicks) {
+                ++_nextCue;
+            }
+        }
+        _task = _scope.runTaskTimer(() -> tick(), 1, 1);
+        runDueCues();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the timeline without running any further cues.
+     */
+    public void cancel() {
+        _scope.cancel(_task);
+        _nextCue = _cues.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pause or resume the timeline.
+     *
+     * While paused, the elapsed tick count does not advance and no cues run.
+     *
+     * @param paused true to pause; false to resume.
+     */
+    public void setPaused(boolean paused) {
+        _paused = paused;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the timeline is paused.
+     *
+     * @return true if the timeline is paused.
+     */
+    public boolean isPaused() {
+        return _paused;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the timeline has been started and has cues yet to run.
+     *
+     * @return true if the timeline is running.
+     */
+    public boolean isRunning() {
+        return _task != null && !isFinished();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if all cues have run, or the timeline was cancelled.
+     *
+     * @return true if the timeline is finished.
+     */
+    public boolean isFinished() {
+        return _nextCue >= _cues.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the timeline.
+     *
+     * @return the name of the timeline.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks since the start of the timeline, excluding
+     * ticks spent paused.
+     *
+     * @return the elapsed tick count.
+     */
+    public int getElapsedTicks() {
+        return _elapsedTicks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tick of the last cue, i.e. the duration of the timeline.
+     *
+     * @return the duration in ticks.
+     */
+    public int getDurationTicks() {
+        return _cues.isEmpty() ? 0 : _cues.get(_cues.size() - 1)._tick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the next cue to run.
+     *
+     * @return the name of the next cue, or null if finished.
+     */
+    public String getNextCueName() {
+        return isFinished() ? null : _cues.get(_nextCue)._name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the timeline's progress.
+     *
+     * @return a description of the timeline's progress.
+     */
+    @Override
+    public String toString() {
+        return _name + " " + _elapsedTicks + "/" + getDurationTicks() + " ticks" +
+               (_paused ? " (paused)" : "") +
+               (isFinished() ? ", finished" : ", next: " + getNextCueName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Advance the timeline by one tick.
+     */
+    protected void tick() {
+        if (_paused) {
+            return;
+        }
+        ++_elapsedTicks;
+        runDueCues();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run all cues that are due, in order, then stop the task if none remain.
+     *
+     * A cue may cancel the timeline, in which case later cues do not run.
+     */
+    protected void runDueCues() {
+        while (!_paused && _nextCue < _cues.size() && _cues.get(_nextCue)._tick <= _elapsedTicks) {
+            Cue cue = _cues.get(_nextCue++);
+            cue._action.run();
+        }
+        if (isFinished()) {
+            _scope.cancel(_task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An action to run at a particular tick.
+     */
+    protected static final class Cue {
+        /**
+         * Constructor.
+         *
+         * @param tick   the tick when the cue runs.
+         * @param name   the name of the cue.
+         * @param action the action.
+         */
+        Cue(int tick, String name, Runnable action) {
+            _tick = tick;
+            _name = name;
+            _action = action;
+        }
+
+        /**
+         * The tick, relative to the start of the timeline, when the cue runs.
+         */
+        final int _tick;
+
+        /**
+         * The name of the cue.
+         */
+        final String _name;
+
+        /**
+         * The action.
+         */
+        final Runnable _action;
+    } // class Cue
+
+    // ------------------------------------------------------------------------
+    /**
+     * The name of the timeline.
+     */
+    protected final String _name;
+
+    /**
+     * The scope that owns the task that drives the timeline.
+     */
+    protected final TaskScope _scope;
+
+    /**
+     * The cues, sorted by tick.
+     */
+    protected final List<Cue> _cues = new ArrayList<>();
+
+    /**
+     * Index of the next cue to run.
+     */
+    protected int _nextCue;
+
+    /**
+     * Ticks elapsed since the start, excluding those spent paused.
+     */
+    protected int _elapsedTicks;
+
+    /**
+     * True if paused.
+     */
+    protected boolean _paused;
+
+    /**
+     * The repeating task that drives the timeline, or null if not started.
+     */
+    protected BukkitTask _task;
+} // class Timeline
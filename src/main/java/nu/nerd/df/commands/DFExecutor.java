@@ -1,6 +1,8 @@
 package nu.nerd.df.commands;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -15,13 +17,14 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.util.RayTraceResult;
 
-import nu.nerd.beastmaster.BeastMaster;
 import nu.nerd.beastmaster.commands.Commands;
 import nu.nerd.beastmaster.commands.ExecutorBase;
+import nu.nerd.df.Configuration;
 import nu.nerd.df.DragonFight;
 import nu.nerd.df.DragonUtil;
 import nu.nerd.df.FightState;
 import nu.nerd.df.Stage;
+import nu.nerd.df.Startup;
 
 // ----------------------------------------------------------------------------
 /**
@@ -34,8 +37,8 @@ public class DFExecutor extends ExecutorBase {
      */
     public DFExecutor() {
         super("df", "help",
-              "info", "stop", "next", "stage", "spawn", "owner", "unclaimed",
-              "list", "swap", "move", "config");
+              "info", "status", "stop", "next", "stage", "spawn", "owner", "unclaimed",
+              "list", "swap", "move", "order", "config");
     }
 
     // ------------------------------------------------------------------------
@@ -54,13 +57,22 @@ public class DFExecutor extends ExecutorBase {
             return true;
         }
 
+        if (args.length == 1 && args[0].equalsIgnoreCase("status")) {
+            cmdStatus(sender);
+            return true;
+        }
+
         if (args.length == 1 && args[0].equalsIgnoreCase("stop")) {
-            DragonFight.FIGHT.cmdStop(sender);
+            if (isReady(sender)) {
+                DragonFight.FIGHT.cmdStop(sender);
+            }
             return true;
         }
 
         if (args.length == 1 && args[0].equalsIgnoreCase("next")) {
-            DragonFight.FIGHT.cmdNextStage(sender);
+            if (isReady(sender)) {
+                DragonFight.FIGHT.cmdNextStage(sender);
+            }
             return true;
         }
 
@@ -75,7 +87,7 @@ public class DFExecutor extends ExecutorBase {
                                                        n -> n >= 0 && n <= 11,
                                                        () -> sender.sendMessage(ChatColor.RED + "The stage number must be an integer from 0 to 11."),
                                                        null);
-            if (stageNumber != null) {
+            if (stageNumber != null && isReady(sender)) {
                 DragonFight.FIGHT.cmdSkipToStage(sender, stageNumber);
             }
 
@@ -132,7 +144,7 @@ public class DFExecutor extends ExecutorBase {
 
             // Always returns a non-null OfflinePlayer.
             OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(playerArg);
-            DragonFight.CONFIG.FIGHT_OWNER = offlinePlayer.getUniqueId();
+            DragonFight.CONFIG.setFightOwner(offlinePlayer.getUniqueId());
             DragonFight.CONFIG.save();
 
             sender.sendMessage(ChatColor.DARK_PURPLE + "The fight owner was set to " +
@@ -144,13 +156,14 @@ public class DFExecutor extends ExecutorBase {
         }
 
         if (args.length == 1 && args[0].equalsIgnoreCase("unclaimed")) {
-            if (DragonFight.CONFIG.UNCLAIMED_PRIZES.isEmpty()) {
+            Map<UUID, Integer> unclaimedPrizes = DragonFight.CONFIG.exportUnclaimedPrizes();
+            if (unclaimedPrizes.isEmpty()) {
                 sender.sendMessage(ChatColor.DARK_PURPLE + "No players have unclaimed prizes.");
                 return true;
             }
 
             sender.sendMessage(ChatColor.DARK_PURPLE + "The following players have unclaimed prizes:");
-            String players = DragonFight.CONFIG.UNCLAIMED_PRIZES.entrySet().stream()
+            String players = unclaimedPrizes.entrySet().stream()
                 .map(entry -> {
                     // OfflinePlayer never null:
                     OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(entry.getKey());
@@ -197,10 +210,10 @@ public class DFExecutor extends ExecutorBase {
                 return true;
             }
 
-            Stage.swap(DragonFight.CONFIG.getStage(fromNumber),
-                       DragonFight.CONFIG.getStage(toNumber));
-            DragonFight.CONFIG.save();
-            BeastMaster.CONFIG.save();
+            int[] order = getIdentityOrder();
+            order[fromNumber - 1] = toNumber;
+            order[toNumber - 1] = fromNumber;
+            DragonFight.CONFIG.permuteStages(order);
             sender.sendMessage(ChatColor.DARK_PURPLE + "Stages " +
                                ChatColor.LIGHT_PURPLE + fromNumber +
                                ChatColor.DARK_PURPLE + " and " +
@@ -236,29 +249,57 @@ public class DFExecutor extends ExecutorBase {
             }
 
             // So by here, we know that the from and to numbers differ.
-            Stage.swap(DragonFight.CONFIG.getStage(fromNumber),
-                       DragonFight.CONFIG.getStage(toNumber));
-
-            // To fix the order, swap as many times as there are stages between.
+            // Stages in between shift one place towards <from>.
+            int[] order = getIdentityOrder();
             if (fromNumber < toNumber) {
-                for (int stage = fromNumber; stage < toNumber - 1; ++stage) {
-                    Stage.swap(DragonFight.CONFIG.getStage(stage),
-                               DragonFight.CONFIG.getStage(stage + 1));
+                for (int stage = fromNumber; stage < toNumber; ++stage) {
+                    order[stage - 1] = stage + 1;
                 }
             } else {
                 // fromNumber > toNumber
-                for (int stage = fromNumber; stage > toNumber + 1; --stage) {
-                    Stage.swap(DragonFight.CONFIG.getStage(stage),
-                               DragonFight.CONFIG.getStage(stage - 1));
+                for (int stage = fromNumber; stage > toNumber; --stage) {
+                    order[stage - 1] = stage - 1;
                 }
             }
+            order[toNumber - 1] = fromNumber;
+            DragonFight.CONFIG.permuteStages(order);
             sender.sendMessage(ChatColor.DARK_PURPLE + "Moved stage " +
                                ChatColor.LIGHT_PURPLE + fromNumber +
                                ChatColor.DARK_PURPLE + " to position " +
                                ChatColor.LIGHT_PURPLE + toNumber +
                                ChatColor.DARK_PURPLE + ".");
-            DragonFight.CONFIG.save();
-            BeastMaster.CONFIG.save();
+            return true;
+        }
+
+        if (args.length >= 1 && args[0].equalsIgnoreCase("order")) {
+            if (args.length != 11) {
+                sender.sendMessage(ChatColor.RED + "Usage: /df order <stage> ... <stage>");
+                sender.sendMessage(ChatColor.RED + "Reorder all 10 stages: list the current stage numbers in their new order.");
+                return true;
+            }
+
+            int[] order = new int[10];
+            for (int i = 0; i < 10; ++i) {
+                Integer stageNumber = Commands.parseNumber(args[i + 1],
+                                                           Commands::parseInt,
+                                                           n -> n >= 1 && n <= 10,
+                                                           () -> sender.sendMessage(ChatColor.RED + "Stages must be numbers from 1 to 10."),
+                                                           null);
+                if (stageNumber == null) {
+                    return true;
+                }
+                order[i] = stageNumber;
+            }
+            if (!Configuration.isStagePermutation(order)) {
+                sender.sendMessage(ChatColor.RED + "Each stage from 1 to 10 must be listed exactly once.");
+                return true;
+            }
+
+            DragonFight.CONFIG.permuteStages(order);
+            sender.sendMessage(ChatColor.DARK_PURPLE + "Stages reordered: " +
+                               ChatColor.LIGHT_PURPLE + Arrays.stream(order)
+                                   .mapToObj(Integer::toString)
+                                   .collect(Collectors.joining(" ")));
             return true;
         }
 
@@ -371,6 +412,73 @@ public class DFExecutor extends ExecutorBase {
         return true;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Implement the <i>/df status</i> command.
+     *
+     * Show whether the plugin is ready, how long startup took and the time
+     * taken by each phase of startup.
+     *
+     * @param sender the command sender, for message sending.
+     */
+    protected void cmdStatus(CommandSender sender) {
+        Startup startup = DragonFight.STARTUP;
+        if (startup.isReady()) {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "Ready after " +
+                               ChatColor.LIGHT_PURPLE + String.format("%.1f", startup.getTimeToReadyMillis()) +
+                               ChatColor.DARK_PURPLE + " ms.");
+        } else {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "Not ready: still recovering the fight after " +
+                               ChatColor.LIGHT_PURPLE + String.format("%.1f", startup.getTimeToReadyMillis()) +
+                               ChatColor.DARK_PURPLE + " ms.");
+        }
+
+        sender.sendMessage(ChatColor.DARK_PURPLE + "Startup phases:");
+        for (Startup.Phase phase : startup.getPhases()) {
+            sender.sendMessage(ChatColor.LIGHT_PURPLE + phase.getName() +
+                               ChatColor.DARK_PURPLE + " - " +
+                               ChatColor.LIGHT_PURPLE + String.format("%.1f", phase.getDurationMillis()) +
+                               ChatColor.DARK_PURPLE + " ms");
+        }
+
+        Startup.Phase slowest = startup.getSlowestPhase();
+        if (slowest != null) {
+            sender.sendMessage(ChatColor.DARK_PURPLE + "Slowest phase: " +
+                               ChatColor.LIGHT_PURPLE + slowest.getName() + ChatColor.DARK_PURPLE + ".");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the plugin is ready to change the fight, or send the
+     * sender a message explaining why not.
+     *
+     * @param sender the command sender.
+     * @return true if the fight state has been recovered since startup.
+     */
+    protected boolean isReady(CommandSender sender) {
+        if (!DragonFight.STARTUP.isReady()) {
+            sender.sendMessage(ChatColor.RED + "The fight is still being recovered after startup. Try again shortly.");
+            return false;
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the order of stages 1 to 10 that leaves them unchanged, as
+     * passed to {@link nu.nerd.df.Configuration#permuteStages(int[])}.
+     *
+     * @return the array [1, 2, ..., 10].
+     */
+    protected static int[] getIdentityOrder() {
+        int[] order = new int[10];
+        for (int i = 0; i < 10; ++i) {
+            order[i] = i + 1;
+        }
+        return order;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Show usage message.
@@ -33,6 +33,7 @@ public class DragonFightExecutor extends ExecutorBase {
 
         if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
             DragonFight.CONFIG.reloadConfiguration();
+            DragonFight.FIGHT.updateChunkResidency();
             sender.sendMessage(ChatColor.DARK_PURPLE + "DragonFight configuration reloaded.");
             return true;
         }